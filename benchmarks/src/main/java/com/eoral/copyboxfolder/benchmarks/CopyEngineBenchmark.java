@@ -0,0 +1,222 @@
+package com.eoral.copyboxfolder.benchmarks;
+
+import com.eoral.copyboxfolder.App;
+import com.eoral.copyboxfolder.LocalStorageBackend;
+import com.eoral.copyboxfolder.LocalStorageSimulation;
+import com.eoral.copyboxfolder.StorageBackend;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Copies a generated tree with the whole copy engine, from one folder of a LocalStorageBackend to a new folder
+ * of another one, so each side has its own latency and rate limit like two Box accounts.
+ * Each invocation is one complete run of the application and fails if not every file is copied.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CopyEngineBenchmark {
+
+    public enum TreeShape {
+        /**
+         * 10 folders with 100 files each.
+         */
+        WIDE,
+        /**
+         * A binary tree of folders 7 levels deep, 8 files in each folder.
+         */
+        DEEP
+    }
+
+    public enum FileSizeDistribution {
+        /**
+         * 16 KB files.
+         */
+        SMALL,
+        /**
+         * Mostly 16 KB files, every 20th file is 1 MB and every 500th is 21 MB (copied as a large file).
+         */
+        MIXED,
+        /**
+         * 64 KB files, every 125th file is 21 MB (copied as a large file).
+         */
+        LARGE
+    }
+
+    private static final int LARGE_FILE_SIZE = 21 * 1024 * 1024;
+
+    @Param({"WIDE", "DEEP"})
+    public TreeShape treeShape;
+
+    @Param({"SMALL", "MIXED", "LARGE"})
+    public FileSizeDistribution fileSizeDistribution;
+
+    @Param({"4", "16"})
+    public int numberOfThreadsForCopyingFiles;
+
+    @Param({"STREAMING", "PLANNED"})
+    public String schedulingMode;
+
+    @Param({"STREAM"})
+    public String transferMode;
+
+    @Param({"PLATFORM_THREADS"})
+    public String executionMode;
+
+    @Param({"true"})
+    public boolean adaptiveConcurrencyEnabled;
+
+    @Param({"20"})
+    public long latencyMillis;
+
+    @Param({"0"})
+    public long bandwidthBytesPerSecond;
+
+    @Param({"0"})
+    public int maxRequestsPerSecond;
+
+    private Path workDirectory;
+    private Path rootDirectory;
+    private String originalUserHome;
+    private PrintStream originalOut;
+    private long numberOfFiles;
+    private int invocationCounter = 0;
+    private String targetFolderId;
+    private App app;
+
+    @Setup(Level.Trial)
+    public void createSourceTree() throws IOException {
+        workDirectory = Files.createTempDirectory("copy-box-folder-benchmark-");
+        rootDirectory = Files.createDirectory(workDirectory.resolve("storage"));
+        Path sourceFolder = Files.createDirectory(rootDirectory.resolve("source"));
+        Random random = new Random(42);
+        if (treeShape == TreeShape.WIDE) {
+            for (int i = 0; i < 10; i++) {
+                createFiles(Files.createDirectory(sourceFolder.resolve("folder-" + i)), 100, random);
+            }
+        } else {
+            createDeepTree(sourceFolder, 7, random);
+        }
+        // Output, journal and metrics files are written to the user home directory.
+        originalUserHome = System.getProperty("user.home");
+        System.setProperty("user.home", workDirectory.toString());
+        // Every copied item is printed, that would measure the console more than the copy engine.
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteWorkDirectory() {
+        System.setOut(originalOut);
+        System.setProperty("user.home", originalUserHome);
+        deleteRecursively(workDirectory);
+    }
+
+    @Setup(Level.Invocation)
+    public void createTargetFolder() throws IOException {
+        targetFolderId = "target-" + invocationCounter++;
+        Files.createDirectory(rootDirectory.resolve(targetFolderId));
+        app = new App();
+    }
+
+    @TearDown(Level.Invocation)
+    public void verifyAndDeleteTargetFolder() {
+        long completedFiles = app.getMetrics().getCompletedFiles();
+        deleteRecursively(rootDirectory.resolve(targetFolderId));
+        if (completedFiles != numberOfFiles) {
+            throw new IllegalStateException("Not all files are copied - expected: " + numberOfFiles + ", copied: " + completedFiles);
+        }
+    }
+
+    @Benchmark
+    public void copyFolderTree() {
+        LocalStorageSimulation simulation = new LocalStorageSimulation(latencyMillis, bandwidthBytesPerSecond, maxRequestsPerSecond);
+        StorageBackend sourceStorage = new LocalStorageBackend(rootDirectory, simulation);
+        StorageBackend targetStorage = new LocalStorageBackend(rootDirectory, simulation);
+        app.run(createProperties(), sourceStorage, targetStorage);
+    }
+
+    private Properties createProperties() {
+        Properties properties = new Properties();
+        try (InputStream inputStream = App.class.getResourceAsStream("/app.properties")) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        properties.setProperty("storageBackend", "LOCAL");
+        properties.setProperty("sourceFolderId", "source");
+        properties.setProperty("targetFolderId", targetFolderId);
+        properties.setProperty("numberOfThreadsForCopyingFiles", Integer.toString(numberOfThreadsForCopyingFiles));
+        properties.setProperty("schedulingMode", schedulingMode);
+        properties.setProperty("transferMode", transferMode);
+        properties.setProperty("executionMode", executionMode);
+        properties.setProperty("adaptiveConcurrencyEnabled", Boolean.toString(adaptiveConcurrencyEnabled));
+        properties.setProperty("largeFileThresholdInBytes", "20000000");
+        // Server side copy would skip the transfer path, which is what is measured here.
+        properties.setProperty("serverSideCopyEnabled", "false");
+        properties.setProperty("resume", "false");
+        properties.setProperty("pipelineStatsIntervalInSeconds", "3600");
+        return properties;
+    }
+
+    private void createDeepTree(Path folder, int depth, Random random) throws IOException {
+        createFiles(folder, 8, random);
+        if (depth > 1) {
+            for (int i = 0; i < 2; i++) {
+                createDeepTree(Files.createDirectory(folder.resolve("folder-" + i)), depth - 1, random);
+            }
+        }
+    }
+
+    private void createFiles(Path folder, int count, Random random) throws IOException {
+        for (int i = 0; i < count; i++) {
+            byte[] content = new byte[getFileSize(numberOfFiles)];
+            random.nextBytes(content);
+            Files.write(folder.resolve("file-" + i + ".bin"), content);
+            numberOfFiles++;
+        }
+    }
+
+    private int getFileSize(long fileIndex) {
+        switch (fileSizeDistribution) {
+            case MIXED:
+                if (fileIndex % 500 == 499) {
+                    return LARGE_FILE_SIZE;
+                }
+                return fileIndex % 20 == 19 ? 1024 * 1024 : 16 * 1024;
+            case LARGE:
+                return fileIndex % 125 == 124 ? LARGE_FILE_SIZE : 64 * 1024;
+            default:
+                return 16 * 1024;
+        }
+    }
+
+    private static void deleteRecursively(Path path) {
+        try (Stream<Path> stream = Files.walk(path)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.eoral.copyboxfolder;
+
+import com.box.sdk.BoxAPIException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of in-flight api calls made through one Box connection, and adjusts the limit at runtime (AIMD):
+ * <ul>
+ *     <li>After a full window of successful calls (as many calls as the current limit), the limit is increased by one,
+ *     unless recent latency is much higher than the long term latency.</li>
+ *     <li>On 429 or 5xx, the limit is halved. All calls are paused until Retry-After passes, if Box sends it.</li>
+ * </ul>
+ * Rate limit errors and transport failures are retried here, so Box SDK retries should be disabled for connections using an adaptive limiter,
+ * otherwise the SDK hides 429 responses by sleeping and retrying on its own.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double LATENCY_TOLERANCE_FACTOR = 2.0;
+    private static final double SHORT_TERM_LATENCY_WEIGHT = 0.2;
+    private static final double LONG_TERM_LATENCY_WEIGHT = 0.01;
+    private static final long MIN_MILLIS_BETWEEN_DECREASES = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+
+    private final String name;
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxAttempts;
+    private final TransferMetrics.ConnectionMetrics metrics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+    private int limit;
+    private int inFlight = 0;
+    private int successesInWindow = 0;
+    private long pausedUntilMillis = 0;
+    private long lastDecreaseMillis = 0;
+    private double shortTermLatencyMillis = -1;
+    private double longTermLatencyMillis = -1;
+
+    private AdaptiveConcurrencyLimiter(String name, boolean adaptive, int initialLimit, int minLimit, int maxLimit, int maxAttempts,
+                                       TransferMetrics.ConnectionMetrics metrics) {
+        this.name = name;
+        this.adaptive = adaptive;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxAttempts = maxAttempts;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param metrics Each attempt of each call is recorded here, together with retries and throttled responses.
+     */
+    public static AdaptiveConcurrencyLimiter adaptive(String name, int initialLimit, int minLimit, int maxLimit, int maxAttempts,
+                                                      TransferMetrics.ConnectionMetrics metrics) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Limits should satisfy 1 <= min <= initial <= max.");
+        }
+        return new AdaptiveConcurrencyLimiter(name, true, initialLimit, minLimit, maxLimit, maxAttempts, metrics);
+    }
+
+    /**
+     * A limiter which doesn't limit anything, calls are run directly and the Box SDK handles retries.
+     * Calls are still recorded in the metrics. Retries made inside the SDK are not visible, throttled responses are
+     * counted by the connection if it can see them (see StorageBackend.countThrottledResponses).
+     */
+    public static AdaptiveConcurrencyLimiter unlimited(String name, TransferMetrics.ConnectionMetrics metrics) {
+        return new AdaptiveConcurrencyLimiter(name, false, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 1, metrics);
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Number of calls holding a permit right now.
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the call once a permit is available. A retryable call is retried on 429 and 5xx, and on transport failures
+     * (connection resets, timeouts), which the SDK no longer retries once its retries are disabled.
+     * A call is retryable if running it again has no side effect, e.g. it doesn't read from a stream consumed by the failed attempt.
+     */
+    public <T> T execute(BoxOperation operation, boolean retryable, Supplier<T> call) {
+        TransferMetrics.OperationMetrics operationMetrics = metrics.operation(operation);
+        if (!adaptive) {
+            return executeOnce(operationMetrics, call);
+        }
+        for (int attempt = 1; ; attempt++) {
+            acquire();
+            long startNanos = System.nanoTime();
+            T result;
+            try {
+                result = executeOnce(operationMetrics, call);
+            } catch (BoxAPIException e) {
+                release();
+                if (isTransportFailure(e)) {
+                    // Not a sign of overload, the limit is kept.
+                    if (!retryable || attempt >= maxAttempts) {
+                        throw e;
+                    }
+                    metrics.retried();
+                    sleep(Math.min(MAX_BACKOFF_MILLIS, 1000L << (attempt - 1)));
+                    continue;
+                }
+                if (!isThrottled(e)) {
+                    throw e;
+                }
+                long retryAfterMillis = onThrottled(e);
+                if (!retryable || attempt >= maxAttempts) {
+                    throw e;
+                }
+                metrics.retried();
+                sleep(retryAfterMillis > 0 ? retryAfterMillis : Math.min(MAX_BACKOFF_MILLIS, 1000L << (attempt - 1)));
+                continue;
+            } catch (RuntimeException | Error e) {
+                release();
+                throw e;
+            }
+            release();
+            onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            return result;
+        }
+    }
+
+    public void execute(BoxOperation operation, boolean retryable, Runnable call) {
+        execute(operation, retryable, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Takes a permit of each limiter for two calls depending on each other, e.g. an upload reading what a download
+     * writes at the same time. Waiting for the second permit while holding the first one could deadlock if both were
+     * taken by the calls themselves, so both are taken up front, always the first limiter first.
+     * If both limiters are the same, the two permits are taken at once.
+     * Check {@link #canAcquireBoth} first, otherwise this may wait forever.
+     */
+    public static Permit[] acquireBoth(AdaptiveConcurrencyLimiter first, AdaptiveConcurrencyLimiter second) {
+        if (first == second) {
+            first.acquire(2);
+            return new Permit[]{first.new Permit(), first.new Permit()};
+        }
+        first.acquire(1);
+        try {
+            second.acquire(1);
+        } catch (RuntimeException e) {
+            first.release();
+            throw e;
+        }
+        return new Permit[]{first.new Permit(), second.new Permit()};
+    }
+
+    /**
+     * False if the limiters are the same and its limit may drop below two.
+     */
+    public static boolean canAcquireBoth(AdaptiveConcurrencyLimiter first, AdaptiveConcurrencyLimiter second) {
+        return first != second || !first.adaptive || first.minLimit >= 2;
+    }
+
+    private <T> T executeOnce(TransferMetrics.OperationMetrics operationMetrics, Supplier<T> call) {
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.get();
+            failed = false;
+            return result;
+        } catch (BoxAPIException e) {
+            if (isThrottled(e) && !metrics.isCountedByClient()) {
+                metrics.throttled(e.getResponseCode());
+            }
+            throw e;
+        } finally {
+            operationMetrics.record(System.nanoTime() - startNanos, failed);
+        }
+    }
+
+    /**
+     * True for rate limiting (429) and server errors (5xx).
+     */
+    public static boolean isThrottled(BoxAPIException e) {
+        return e.getResponseCode() == 429 || e.getResponseCode() >= 500;
+    }
+
+    /**
+     * True when no response was received, e.g. the connection was reset or timed out.
+     */
+    public static boolean isTransportFailure(BoxAPIException e) {
+        if (e.getResponseCode() == 0) {
+            return true;
+        }
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void acquire() {
+        acquire(1);
+    }
+
+    private void acquire(int permits) {
+        if (!adaptive) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (true) {
+                long pauseMillis = pausedUntilMillis - System.currentTimeMillis();
+                if (pauseMillis > 0) {
+                    permitAvailable.await(pauseMillis, TimeUnit.MILLISECONDS);
+                } else if (inFlight + permits > limit) {
+                    permitAvailable.await();
+                } else {
+                    inFlight += permits;
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        if (!adaptive) {
+            return;
+        }
+        lock.lock();
+        try {
+            inFlight--;
+            // A waiter for two permits may not be able to use the one released, so all waiters check again.
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSuccess(long latencyMillis) {
+        lock.lock();
+        try {
+            if (shortTermLatencyMillis < 0) {
+                shortTermLatencyMillis = latencyMillis;
+                longTermLatencyMillis = latencyMillis;
+            } else {
+                shortTermLatencyMillis += SHORT_TERM_LATENCY_WEIGHT * (latencyMillis - shortTermLatencyMillis);
+                longTermLatencyMillis += LONG_TERM_LATENCY_WEIGHT * (latencyMillis - longTermLatencyMillis);
+            }
+            successesInWindow++;
+            if (successesInWindow >= limit) {
+                successesInWindow = 0;
+                boolean latencyHealthy = shortTermLatencyMillis <= LATENCY_TOLERANCE_FACTOR * longTermLatencyMillis;
+                if (latencyHealthy && limit < maxLimit) {
+                    limit++;
+                    permitAvailable.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns Retry-After in milliseconds, or 0 if Box didn't send it.
+     */
+    private long onThrottled(BoxAPIException e) {
+        long retryAfterMillis = getRetryAfterMillis(e);
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            successesInWindow = 0;
+            // Many in-flight calls fail together when the limit is hit, it should be halved once for all of them.
+            if (now - lastDecreaseMillis >= MIN_MILLIS_BETWEEN_DECREASES) {
+                lastDecreaseMillis = now;
+                int oldLimit = limit;
+                limit = Math.max(minLimit, limit / 2);
+                System.err.println("Throttled by Box (" + name + ") - status: " + e.getResponseCode()
+                        + ", limit: " + oldLimit + " -> " + limit + ", retryAfterMillis: " + retryAfterMillis);
+            }
+            if (retryAfterMillis > 0) {
+                pausedUntilMillis = Math.max(pausedUntilMillis, now + retryAfterMillis);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return retryAfterMillis;
+    }
+
+    private static long getRetryAfterMillis(BoxAPIException e) {
+        Map<String, List<String>> headers = e.getHeaders();
+        if (headers == null) {
+            return 0;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if ("Retry-After".equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty()) {
+                try {
+                    return Math.min(MAX_BACKOFF_MILLIS, Long.parseLong(header.getValue().get(0).trim()) * 1000);
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A permit taken by {@link #acquireBoth} for one call. It is released when the call ends, or by {@link #release}
+     * if the call is never made.
+     */
+    public class Permit {
+
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Permit() {
+        }
+
+        /**
+         * Runs the call once and releases the permit. A throttled call adjusts the limit like any other call,
+         * but it is not retried.
+         */
+        public <T> T execute(BoxOperation operation, Supplier<T> call) {
+            TransferMetrics.OperationMetrics operationMetrics = metrics.operation(operation);
+            long startNanos = System.nanoTime();
+            T result;
+            try {
+                result = executeOnce(operationMetrics, call);
+            } catch (BoxAPIException e) {
+                release();
+                if (adaptive && isThrottled(e)) {
+                    onThrottled(e);
+                }
+                throw e;
+            } catch (RuntimeException | Error e) {
+                release();
+                throw e;
+            }
+            release();
+            if (adaptive) {
+                onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            }
+            return result;
+        }
+
+        public void execute(BoxOperation operation, Runnable call) {
+            execute(operation, () -> {
+                call.run();
+                return null;
+            });
+        }
+
+        /**
+         * Does nothing if the permit is already released.
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                AdaptiveConcurrencyLimiter.this.release();
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
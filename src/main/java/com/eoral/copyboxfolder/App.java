@@ -4,52 +4,203 @@ import com.box.sdk.*;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.io.*;
-import java.nio.file.Files;
+import java.net.InetAddress;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class App {
 
-    private ExecutorService executor = null;
+    private MonitoredExecutorService executor = null;
+    private ScheduledExecutorService statsReporter = null;
+    private ForkJoinPool traversalPool = null;
+    private ExecutorService listingPrefetchExecutor = null;
+    private FolderLister sourceLister = null;
+    private FolderLister targetLister = null;
+    private SchedulingMode schedulingMode = null;
+    private SourceTreeManifest manifest = null;
+    private Map<String, String> plannedTargetFolderIds = null;
+    private MonitoredExecutorService largeFileLaneExecutor = null;
+    private long largeFileLaneThresholdInBytes = 0;
+    private ExecutorService streamingExecutor = null;
+    private ExecutorService largeFilePartExecutor = null;
+    private LargeFileTransfer largeFileTransfer = null;
+    private long largeFileThresholdInBytes = 0;
+    private TransferMode transferMode = null;
+    private long inMemoryTransferMaxFileSizeInBytes = 0;
+    private MemoryBudget memoryBudget = null;
+    private BufferPool chunkBufferPool = null;
+    private BufferPool streamBufferPool = null;
+    private CheckpointJournal checkpointJournal = null;
+    private Map<String, BoxItemMapping> completedItemIndex = null;
+    private SyncState syncState = null;
+    private boolean skipUnchangedFolders = false;
+    private Path syncStateFilePath = null;
+    private TargetFolderListingCache targetListingCache = null;
+    private AdaptiveConcurrencyLimiter sourceLimiter = null;
+    private AdaptiveConcurrencyLimiter targetLimiter = null;
+    private boolean serverSideCopyEnabled = false;
+    private boolean serverSideFolderCopyEnabled = false;
+    private ChangedFilePolicy changedFilePolicy = null;
+    private final TransferMetrics metrics = new TransferMetrics();
+    private ProgressReporter progressReporter = null;
+    private Path metricsFilePath = null;
+    private BoxHttpTransport httpTransport = null;
+    private ShardCoordinator shardCoordinator = null;
+    private Path outputDirectory = Paths.get(System.getProperty("user.home"));
 
     public static void main(String[] args) {
-
-        long startTime = System.currentTimeMillis();
         App app = new App();
         Properties properties = app.loadProperties();
+        try {
+            StorageBackend sourceStorage = app.createStorageBackend(properties, "source");
+            StorageBackend targetStorage = app.createStorageBackend(properties, "target");
+            if (Arrays.asList(args).contains("--dry-run")) {
+                app.dryRun(properties, sourceStorage, targetStorage);
+            } else {
+                app.run(properties, sourceStorage, targetStorage);
+            }
+        } finally {
+            if (app.httpTransport != null) {
+                app.httpTransport.close();
+            }
+        }
+    }
+
+    /**
+     * Copies the source folder into the target folder given in the properties. An App instance can be run only once.
+     */
+    public void run(Properties properties, StorageBackend sourceStorage, StorageBackend targetStorage) {
 
-        String boxConfigJsonStrToAccessSourceFolder = app.getFileContentAsString("box-config-to-access-source-folder.json");
+        long startTime = System.currentTimeMillis();
         String sourceFolderId = properties.getProperty("sourceFolderId");
-        String boxConfigJsonStrToAccessTargetFolder = app.getFileContentAsString("box-config-to-access-target-folder.json");
         String targetFolderId = properties.getProperty("targetFolderId");
 
-        BoxLogger.defaultLogger().setLevelToAll();
-        BoxDeveloperEditionAPIConnection sourceApi = app.createApi(boxConfigJsonStrToAccessSourceFolder);
-        BoxDeveloperEditionAPIConnection targetApi = app.createApi(boxConfigJsonStrToAccessTargetFolder);
-
-        app.initExecutor(properties);
-        List<BoxItemMapping> boxItemMappingList = Collections.synchronizedList(new ArrayList<>());
+        initShardCoordinator(properties, sourceFolderId, targetFolderId);
+        initTransferSettings(properties);
+        initLimiters(properties, sourceStorage, targetStorage);
+        initTraversalPool(properties, sourceStorage, targetStorage);
+        initExecutor(properties);
+        initMetrics(properties);
+        MappingOutputWriter mappingOutputWriter = createMappingOutputWriter(properties);
+        initCheckpointJournal(properties, sourceFolderId, targetFolderId);
+        initTargetListingCache(properties);
+        initServerSideCopy(properties, targetStorage, sourceFolderId);
+        initSyncState(properties, sourceFolderId, targetFolderId);
 
+        boolean traversalCompleted = false;
         try {
-            app.copyChildItems(sourceApi, sourceFolderId, targetApi, targetFolderId, boxItemMappingList);
+            if (shardCoordinator != null) {
+                copyShardedFolderTree(properties, sourceStorage, targetStorage, mappingOutputWriter);
+            } else {
+                if (schedulingMode == SchedulingMode.PLANNED) {
+                    plannedTargetFolderIds = new ConcurrentHashMap<>();
+                    manifest = scanSourceTree(sourceStorage, sourceFolderId);
+                    System.out.println("Plan - " + manifest.getSummaryLine());
+                }
+                copyFolderTree(sourceStorage, sourceFolderId, targetStorage, targetFolderId, mappingOutputWriter);
+                if (manifest != null) {
+                    copyPlannedFiles(sourceStorage, targetStorage, mappingOutputWriter);
+                }
+            }
+            traversalCompleted = true;
         } finally {
-            app.shutdownExecutorAndAwaitTermination(properties);
+            boolean copiesCompleted = shutdownExecutorAndAwaitTermination(properties);
+            checkpointJournal.close();
+            mappingOutputWriter.close();
+            if (syncState != null) {
+                saveSyncStateIfNothingFailed(traversalCompleted && copiesCompleted, sourceFolderId, targetFolderId);
+            }
+            if (shardCoordinator != null && traversalCompleted && copiesCompleted) {
+                mergeShardOutputsIfFinished(properties, sourceFolderId, targetFolderId);
+            }
             long endTime = System.currentTimeMillis();
             Duration duration = Duration.of(endTime - startTime, ChronoUnit.MILLIS);
             System.out.println("\n\nCompleted in " + duration.toMinutes() + " minutes\n");
-            Path exportFilePath = app.exportBoxItemMappingListToFile(boxItemMappingList);
-            System.out.println("Output file is here: " + exportFilePath.toAbsolutePath());
+            System.out.println("Output file is here: " + mappingOutputWriter.getFilePath().toAbsolutePath());
+            System.out.println("Metrics file is here: " + metricsFilePath.toAbsolutePath());
+        }
+    }
+
+    /**
+     * Lists the source tree and prints its totals and an estimated copy time. Nothing is written to the target,
+     * and the journal and output files are not touched.
+     */
+    public SourceTreeManifest dryRun(Properties properties, StorageBackend sourceStorage, StorageBackend targetStorage) {
+        initLimiters(properties, sourceStorage, targetStorage);
+        initTraversalPool(properties, sourceStorage, targetStorage);
+        try {
+            SourceTreeManifest sourceTreeManifest = scanSourceTree(sourceStorage, properties.getProperty("sourceFolderId"));
+            System.out.println("Plan - " + sourceTreeManifest.getSummaryLine());
+            printEstimate(properties, sourceTreeManifest);
+            return sourceTreeManifest;
+        } finally {
+            traversalPool.shutdownNow();
+            listingPrefetchExecutor.shutdownNow();
         }
     }
 
+    /**
+     * Replays the files on the configured number of workers in the order the scheduling mode would submit them,
+     * assuming every transfer runs at estimatedTransferBytesPerSecond. Api calls and throttling are covered only
+     * by the fixed estimatedMillisPerFile, so this is a rough figure to compare settings and spot a long tail.
+     */
+    private void printEstimate(Properties properties, SourceTreeManifest sourceTreeManifest) {
+        double bytesPerSecond = Double.parseDouble(properties.getProperty("estimatedTransferBytesPerSecond"));
+        double secondsPerFile = Long.parseLong(properties.getProperty("estimatedMillisPerFile")) / 1000.0;
+        SchedulingMode plannedSchedulingMode = SchedulingMode.valueOf(properties.getProperty("schedulingMode"));
+        int workers = ExecutionMode.valueOf(properties.getProperty("executionMode")) == ExecutionMode.VIRTUAL_THREADS
+                ? Integer.parseInt(properties.getProperty("virtualThreadMaxConcurrentCopies"))
+                : Integer.parseInt(properties.getProperty("numberOfThreadsForCopyingFiles"));
+        long largeFileThreshold = Long.parseLong(properties.getProperty("largeFileThresholdInBytes"));
+        int partConcurrency = Integer.parseInt(properties.getProperty("largeFilePartConcurrency"));
+        int laneThreads = Integer.parseInt(properties.getProperty("largeFileLaneThreads"));
+        long laneThreshold = Long.parseLong(properties.getProperty("largeFileLaneThresholdInBytes"));
+        double seconds;
+        if (plannedSchedulingMode == SchedulingMode.STREAMING) {
+            seconds = SourceTreeManifest.estimateSeconds(sourceTreeManifest.getFilesInListingOrder(),
+                    workers, bytesPerSecond, secondsPerFile, largeFileThreshold, partConcurrency);
+        } else if (laneThreads > 0) {
+            List<SourceTreeManifest.ManifestFile> laneFiles = sourceTreeManifest.getFilesLargestFirst(laneThreshold, Long.MAX_VALUE);
+            System.out.println("Large file lane - files: " + laneFiles.size() + ", threads: " + laneThreads);
+            seconds = Math.max(
+                    SourceTreeManifest.estimateSeconds(sourceTreeManifest.getFilesLargestFirst(0, laneThreshold),
+                            workers, bytesPerSecond, secondsPerFile, largeFileThreshold, partConcurrency),
+                    SourceTreeManifest.estimateSeconds(laneFiles,
+                            laneThreads, bytesPerSecond, secondsPerFile, largeFileThreshold, partConcurrency));
+        } else {
+            seconds = SourceTreeManifest.estimateSeconds(sourceTreeManifest.getFilesLargestFirst(0, Long.MAX_VALUE),
+                    workers, bytesPerSecond, secondsPerFile, largeFileThreshold, partConcurrency);
+        }
+        long largestFileSize = sourceTreeManifest.getLargestFileSize();
+        double largestFileSeconds = secondsPerFile + largestFileSize
+                / (largestFileSize >= largeFileThreshold ? bytesPerSecond * partConcurrency : bytesPerSecond);
+        System.out.println("Estimated copy time (" + plannedSchedulingMode + "): " + Utils.formatDuration((long) seconds)
+                + ", largest file alone: " + Utils.formatDuration((long) largestFileSeconds)
+                + ", assuming " + Utils.formatBytes((long) bytesPerSecond) + "/s per transfer");
+    }
+
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
+
     private Properties loadProperties() {
         Properties properties = new Properties();
         try (InputStream inputStream = this.getClass().getResourceAsStream("/app.properties")) {
@@ -68,218 +219,1234 @@ public class App {
         }
     }
 
-    private BoxDeveloperEditionAPIConnection createApi(String jsonString) {
-        BoxConfig boxConfig = BoxConfig.readFrom(jsonString);
-        IAccessTokenCache accessTokenCache = new InMemoryLRUAccessTokenCache(100);
-        return BoxDeveloperEditionAPIConnection.getAppEnterpriseConnection(boxConfig, accessTokenCache);
+    /**
+     * @param side "source" or "target", selects the Box config file.
+     */
+    private StorageBackend createStorageBackend(Properties properties, String side) {
+        StorageBackendType storageBackendType = StorageBackendType.valueOf(properties.getProperty("storageBackend"));
+        if (storageBackendType == StorageBackendType.LOCAL) {
+            Path rootDirectory = Paths.get(properties.getProperty("localStorageRootDirectory"));
+            LocalStorageSimulation simulation = new LocalStorageSimulation(
+                    Long.parseLong(properties.getProperty("localStorageLatencyMillis")),
+                    Long.parseLong(properties.getProperty("localStorageBandwidthBytesPerSecond")),
+                    Integer.parseInt(properties.getProperty("localStorageMaxRequestsPerSecond")));
+            return new LocalStorageBackend(rootDirectory, simulation);
+        }
+        BoxLogger.defaultLogger().setLevelToAll();
+        if (httpTransport == null) {
+            httpTransport = createHttpTransport(properties);
+        }
+        String boxConfigJsonStr = getFileContentAsString("box-config-to-access-" + side + "-folder.json");
+        return new BoxStorageBackend(httpTransport.createConnection(BoxConfig.readFrom(boxConfigJsonStr)));
+    }
+
+    /**
+     * Source and target connections share one pool. It keeps as many connections alive as there can be calls in flight
+     * on both connections at the same time, so workers don't open a new connection after each quiet moment.
+     * Calls per connection are bounded by the threads making them, and by the concurrency limit if it is adaptive.
+     */
+    private BoxHttpTransport createHttpTransport(Properties properties) {
+        int copyWorkers = ExecutionMode.valueOf(properties.getProperty("executionMode")) == ExecutionMode.VIRTUAL_THREADS
+                ? Integer.parseInt(properties.getProperty("virtualThreadMaxConcurrentCopies"))
+                : Integer.parseInt(properties.getProperty("numberOfThreadsForCopyingFiles"));
+        if (SchedulingMode.valueOf(properties.getProperty("schedulingMode")) == SchedulingMode.PLANNED) {
+            copyWorkers += Integer.parseInt(properties.getProperty("largeFileLaneThreads"));
+        }
+        int maxCallsPerConnection = copyWorkers * Integer.parseInt(properties.getProperty("largeFilePartConcurrency"))
+                + Integer.parseInt(properties.getProperty("numberOfThreadsForTraversingFolders"));
+        if (Boolean.parseBoolean(properties.getProperty("adaptiveConcurrencyEnabled"))) {
+            maxCallsPerConnection = Math.min(maxCallsPerConnection,
+                    Integer.parseInt(properties.getProperty("adaptiveConcurrencyMaxLimit")));
+        }
+        int maxIdleConnections = 2 * maxCallsPerConnection;
+        long keepAliveInSeconds = Long.parseLong(properties.getProperty("httpKeepAliveInSeconds"));
+        long refreshAheadInSeconds = Long.parseLong(properties.getProperty("tokenRefreshAheadInSeconds"));
+        System.out.println("Http transport - max idle connections: " + maxIdleConnections + ", keep-alive: " + keepAliveInSeconds
+                + "s, tokens are refreshed " + refreshAheadInSeconds + "s before expiry");
+        return new BoxHttpTransport(maxIdleConnections, keepAliveInSeconds, refreshAheadInSeconds);
+    }
+
+    /**
+     * In sharded mode, several processes copy the same folders and split the work through the shard directory.
+     * Each worker writes its journal, output and metrics into its own directory there.
+     */
+    private void initShardCoordinator(Properties properties, String sourceFolderId, String targetFolderId) {
+        String shardDirectory = properties.getProperty("shardDirectory");
+        if (shardDirectory.isEmpty()) {
+            return;
+        }
+        String workerId = properties.getProperty("shardWorkerId");
+        if (workerId.isEmpty()) {
+            workerId = generateShardWorkerId();
+        }
+        long leaseExpiryMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(properties.getProperty("shardLeaseExpiryInSeconds")));
+        int maxAttempts = Integer.parseInt(properties.getProperty("shardTaskMaxAttempts"));
+        shardCoordinator = new ShardCoordinator(Paths.get(shardDirectory), workerId, leaseExpiryMillis, maxAttempts);
+        shardCoordinator.join(sourceFolderId, targetFolderId);
+        outputDirectory = shardCoordinator.getWorkerDirectory();
+        System.out.println("Sharded copy, worker " + workerId + " joined " + shardCoordinator.getDirectory().toAbsolutePath());
+    }
+
+    private String generateShardWorkerId() {
+        try {
+            return InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void initTransferSettings(Properties properties) {
+        transferMode = TransferMode.valueOf(properties.getProperty("transferMode"));
+        changedFilePolicy = ChangedFilePolicy.valueOf(properties.getProperty("changedFilePolicy"));
+        inMemoryTransferMaxFileSizeInBytes = Long.parseLong(properties.getProperty("inMemoryTransferMaxFileSizeInBytes"));
+        long memoryBudgetInBytes = Long.parseLong(properties.getProperty("memoryBudgetInBytes"));
+        int bufferChunkSizeInBytes = Integer.parseInt(properties.getProperty("bufferChunkSizeInBytes"));
+        int streamBufferSizeInBytes = Integer.parseInt(properties.getProperty("streamBufferSizeInBytes"));
+        memoryBudget = new MemoryBudget(memoryBudgetInBytes);
+        // Pools never keep more buffers than the budget allows to be in use at the same time.
+        chunkBufferPool = new BufferPool(bufferChunkSizeInBytes, (int) (memoryBudgetInBytes / bufferChunkSizeInBytes));
+        streamBufferPool = new BufferPool(streamBufferSizeInBytes, (int) (memoryBudgetInBytes / streamBufferSizeInBytes));
+    }
+
+    /**
+     * When resuming, items recorded in the journal by previous runs are skipped without any api call.
+     * Otherwise, the journal is truncated.
+     */
+    private void initCheckpointJournal(Properties properties, String sourceFolderId, String targetFolderId) {
+        Path journalFilePath = outputDirectory.resolve(properties.getProperty("checkpointJournalFileName"));
+        boolean resume = Boolean.parseBoolean(properties.getProperty("resume"));
+        if (resume && shardCoordinator != null) {
+            // A restarted worker has a new id, items copied by any worker so far are skipped.
+            completedItemIndex = loadShardJournals(properties, sourceFolderId, targetFolderId);
+            System.out.println("Resuming, " + completedItemIndex.size() + " items are already copied according to the journals of all workers");
+        } else if (resume) {
+            completedItemIndex = CheckpointJournal.load(journalFilePath, sourceFolderId, targetFolderId);
+            System.out.println("Resuming, " + completedItemIndex.size() + " items are already copied according to " + journalFilePath.toAbsolutePath());
+        } else {
+            completedItemIndex = Collections.emptyMap();
+        }
+        // Journals of all workers make up the output of a sharded copy, so a worker never truncates one.
+        checkpointJournal = new CheckpointJournal(journalFilePath, resume || shardCoordinator != null, sourceFolderId, targetFolderId);
+    }
+
+    /**
+     * In incremental mode, items synced by the previous run are found by their source id, so unchanged files and
+     * folders are not checked in the target, and items moved or renamed in the source are moved in the target.
+     */
+    private void initSyncState(Properties properties, String sourceFolderId, String targetFolderId) {
+        if (!Boolean.parseBoolean(properties.getProperty("incrementalSyncEnabled"))) {
+            return;
+        }
+        if (shardCoordinator != null) {
+            throw new IllegalArgumentException("incrementalSyncEnabled is not supported together with shardDirectory.");
+        }
+        skipUnchangedFolders = Boolean.parseBoolean(properties.getProperty("incrementalSkipUnchangedFolders"));
+        syncStateFilePath = outputDirectory.resolve(properties.getProperty("syncStateFileName"));
+        syncState = SyncState.load(syncStateFilePath, sourceFolderId, targetFolderId);
+        System.out.println("Incremental sync, " + syncState.getPreviousSize() + " items are synced by the previous run according to "
+                + syncStateFilePath.toAbsolutePath());
+    }
+
+    /**
+     * A state missing an item would make the next run skip a folder containing it, so the state is written only if every item is synced.
+     */
+    private void saveSyncStateIfNothingFailed(boolean completed, String sourceFolderId, String targetFolderId) {
+        if (!completed || metrics.getFailedFiles() > 0) {
+            System.out.println("Sync state is not updated since some items are not synced, next run starts from the previous state.");
+            return;
+        }
+        syncState.save(syncStateFilePath, sourceFolderId, targetFolderId);
+        System.out.println("Sync state is saved with " + syncState.getCurrentSize() + " items: " + syncStateFilePath.toAbsolutePath());
+    }
+
+    /**
+     * Source and target connections have separate limiters since they are usually different Box accounts with separate rate limits.
+     */
+    private void initLimiters(Properties properties, StorageBackend sourceStorage, StorageBackend targetStorage) {
+        if (Boolean.parseBoolean(properties.getProperty("adaptiveConcurrencyEnabled"))) {
+            int initialLimit = Integer.parseInt(properties.getProperty("adaptiveConcurrencyInitialLimit"));
+            int minLimit = Integer.parseInt(properties.getProperty("adaptiveConcurrencyMinLimit"));
+            int maxLimit = Integer.parseInt(properties.getProperty("adaptiveConcurrencyMaxLimit"));
+            int maxAttempts = Integer.parseInt(properties.getProperty("adaptiveConcurrencyMaxAttempts"));
+            sourceLimiter = AdaptiveConcurrencyLimiter.adaptive("source", initialLimit, minLimit, maxLimit, maxAttempts,
+                    metrics.connection("source"));
+            targetLimiter = AdaptiveConcurrencyLimiter.adaptive("target", initialLimit, minLimit, maxLimit, maxAttempts,
+                    metrics.connection("target"));
+            // Limiters should see 429 responses, SDK retries would hide them.
+            sourceStorage.disableClientRetries();
+            targetStorage.disableClientRetries();
+        } else {
+            sourceLimiter = AdaptiveConcurrencyLimiter.unlimited("source", metrics.connection("source"));
+            targetLimiter = AdaptiveConcurrencyLimiter.unlimited("target", metrics.connection("target"));
+            // The SDK retries 429 and 5xx without reporting them, they are counted as the responses arrive.
+            sourceStorage.countThrottledResponses(metrics.connection("source"));
+            targetStorage.countThrottledResponses(metrics.connection("target"));
+        }
+    }
+
+    /**
+     * Server side copy is made with the target connection, so it is possible only if the target connection can read the source,
+     * e.g. both connections belong to the same enterprise or the source folder is collaborated with the target app user.
+     */
+    private void initServerSideCopy(Properties properties, StorageBackend targetStorage, String sourceFolderId) {
+        if (!Boolean.parseBoolean(properties.getProperty("serverSideCopyEnabled"))) {
+            return;
+        }
+        try {
+            targetLimiter.execute(BoxOperation.GET_INFO, true, () -> targetStorage.getFolder(sourceFolderId));
+            serverSideCopyEnabled = true;
+            serverSideFolderCopyEnabled = Boolean.parseBoolean(properties.getProperty("serverSideFolderCopyEnabled"));
+            System.out.println("Target connection can access the source folder, items will be copied on Box servers.");
+        } catch (BoxAPIException e) {
+            if (e.getResponseCode() != 403 && e.getResponseCode() != 404) {
+                throw e;
+            }
+            System.out.println("Target connection can't access the source folder, items will be downloaded and uploaded.");
+        }
+    }
+
+    private void initTargetListingCache(Properties properties) {
+        if (Boolean.parseBoolean(properties.getProperty("targetListingCacheEnabled"))) {
+            int maxFolders = Integer.parseInt(properties.getProperty("targetListingCacheMaxFolders"));
+            targetListingCache = new TargetFolderListingCache(targetLister, maxFolders);
+        }
     }
 
     private void initExecutor(Properties properties) {
         int numberOfThreads = Integer.parseInt(properties.getProperty("numberOfThreadsForCopyingFiles"));
-        executor = Executors.newFixedThreadPool(numberOfThreads);
+        ExecutionMode executionMode = ExecutionMode.valueOf(properties.getProperty("executionMode"));
+        int largeFilePartConcurrency = Integer.parseInt(properties.getProperty("largeFilePartConcurrency"));
+        if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+            // Copies are limited by the semaphore, not by the number of threads. Helper executors must not limit them either,
+            // a streaming upload waiting for a download thread would stall.
+            int maxConcurrentCopies = Integer.parseInt(properties.getProperty("virtualThreadMaxConcurrentCopies"));
+            executor = new SemaphoreBoundedExecutor(VirtualThreads.newVirtualThreadPerTaskExecutor(), maxConcurrentCopies);
+            streamingExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+            largeFilePartExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        } else {
+            // Bounded, so a fast traversal blocks instead of queueing millions of copy tasks on the heap.
+            int copyTaskQueueCapacity = Integer.parseInt(properties.getProperty("copyTaskQueueCapacity"));
+            executor = new BlockingBoundedExecutor(numberOfThreads, copyTaskQueueCapacity);
+            // Each copy thread streams at most one file at a time, so one download thread per copy thread is enough.
+            streamingExecutor = Executors.newFixedThreadPool(numberOfThreads);
+            largeFilePartExecutor = Executors.newFixedThreadPool(numberOfThreads * largeFilePartConcurrency);
+        }
+        // A sharded worker sees one folder at a time, there is no tree to plan.
+        schedulingMode = shardCoordinator != null ? SchedulingMode.STREAMING : SchedulingMode.valueOf(properties.getProperty("schedulingMode"));
+        int largeFileLaneThreads = Integer.parseInt(properties.getProperty("largeFileLaneThreads"));
+        if (schedulingMode == SchedulingMode.PLANNED && largeFileLaneThreads > 0) {
+            // Few files, each running for a long time, so platform threads are fine in both execution modes.
+            largeFileLaneThresholdInBytes = Long.parseLong(properties.getProperty("largeFileLaneThresholdInBytes"));
+            int copyTaskQueueCapacity = Integer.parseInt(properties.getProperty("copyTaskQueueCapacity"));
+            largeFileLaneExecutor = new BlockingBoundedExecutor(largeFileLaneThreads, copyTaskQueueCapacity);
+        }
+        largeFileThresholdInBytes = Long.parseLong(properties.getProperty("largeFileThresholdInBytes"));
+        if (largeFileThresholdInBytes < LargeFileTransfer.MIN_FILE_SIZE_IN_BYTES) {
+            throw new IllegalArgumentException("largeFileThresholdInBytes should be at least " + LargeFileTransfer.MIN_FILE_SIZE_IN_BYTES);
+        }
+        int largeFilePartMaxAttempts = Integer.parseInt(properties.getProperty("largeFilePartMaxAttempts"));
+        largeFileTransfer = new LargeFileTransfer(largeFilePartExecutor, largeFilePartConcurrency, largeFilePartMaxAttempts,
+                sourceLimiter, targetLimiter, memoryBudget, chunkBufferPool, metrics);
+    }
+
+    /**
+     * Listings requested by copy threads for the target listing cache share the prefetch threads with the traversal.
+     * A prefetch waiting for a free thread only delays its listing, prefetch threads never wait for anything but Box.
+     */
+    private void initTraversalPool(Properties properties, StorageBackend sourceStorage, StorageBackend targetStorage) {
+        int numberOfThreadsForTraversingFolders = Integer.parseInt(properties.getProperty("numberOfThreadsForTraversingFolders"));
+        int listingPageSize = Integer.parseInt(properties.getProperty("listingPageSize"));
+        traversalPool = new ForkJoinPool(numberOfThreadsForTraversingFolders);
+        listingPrefetchExecutor = Executors.newFixedThreadPool(numberOfThreadsForTraversingFolders);
+        sourceLister = new FolderLister(sourceStorage, sourceLimiter, listingPrefetchExecutor, listingPageSize);
+        targetLister = new FolderLister(targetStorage, targetLimiter, listingPrefetchExecutor, listingPageSize);
+    }
+
+    /**
+     * Gauges are read only when metrics are reported, so the executors and limiters don't need to know about the metrics.
+     */
+    private void initMetrics(Properties properties) {
+        metricsFilePath = outputDirectory.resolve(properties.getProperty("metricsFileName"));
+        progressReporter = new ProgressReporter(metrics);
+        metrics.registerGauge("copy_queue_depth", executor::getQueueDepth);
+        metrics.registerGauge("copy_active_tasks", executor::getActiveTasks);
+        metrics.registerGauge("traversal_queued_tasks", traversalPool::getQueuedTaskCount);
+        if (largeFileLaneExecutor != null) {
+            metrics.registerGauge("large_file_lane_queue_depth", largeFileLaneExecutor::getQueueDepth);
+            metrics.registerGauge("large_file_lane_active_tasks", largeFileLaneExecutor::getActiveTasks);
+        }
+        metrics.registerGauge("memory_budget_reserved_bytes", memoryBudget::getReservedInBytes);
+        metrics.registerGauge("source_concurrency_limit", () -> sourceLimiter.isAdaptive() ? sourceLimiter.getLimit() : -1);
+        metrics.registerGauge("source_in_flight_calls", sourceLimiter::getInFlight);
+        metrics.registerGauge("target_concurrency_limit", () -> targetLimiter.isAdaptive() ? targetLimiter.getLimit() : -1);
+        metrics.registerGauge("target_in_flight_calls", targetLimiter::getInFlight);
+        int statsIntervalInSeconds = Integer.parseInt(properties.getProperty("pipelineStatsIntervalInSeconds"));
+        statsReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pipeline-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        statsReporter.scheduleAtFixedRate(this::printPipelineStats, statsIntervalInSeconds, statsIntervalInSeconds, TimeUnit.SECONDS);
+    }
+
+    private void printPipelineStats() {
+        try {
+            System.out.println("Progress - " + progressReporter.getProgressLine());
+            for (TransferMetrics.ConnectionMetrics connection : metrics.getConnections()) {
+                System.out.println("Api calls (" + connection.getName() + ") - " + progressReporter.getApiLine(connection));
+            }
+            System.out.println("Copy pipeline - " + executor.getStatsLine());
+            if (largeFileLaneExecutor != null) {
+                System.out.println("Large file lane - " + largeFileLaneExecutor.getStatsLine());
+            }
+            System.out.println("Memory budget - " + memoryBudget.getStatsLine());
+            if (httpTransport != null) {
+                System.out.println("Http transport - " + httpTransport.getStatsLine());
+            }
+            metrics.writePrometheusFile(metricsFilePath);
+        } catch (RuntimeException e) {
+            // A failed report shouldn't cancel the following ones, scheduleAtFixedRate stops on an exception.
+            System.err.println("Stats couldn't be reported: " + e.getMessage());
+        }
     }
 
     /**
      * This code is taken from https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/concurrent/ExecutorService.html
-     * Only timeouts are changed.
+     * Only timeouts are changed. Returns false if copy tasks are cancelled.
      */
-    private void shutdownExecutorAndAwaitTermination(Properties properties) {
+    private boolean shutdownExecutorAndAwaitTermination(Properties properties) {
         System.out.println("Waiting threads to finish...");
+        // Folder tasks are completed (or failed) when we get here, they are the only ones submitting copy tasks.
+        traversalPool.shutdownNow();
         int timeoutInHours = Integer.parseInt(properties.getProperty("timeoutInHours"));
-        executor.shutdown(); // Disable new tasks from being submitted
+        List<ExecutorService> copyExecutors = largeFileLaneExecutor == null
+                ? List.of(executor) : List.of(executor, largeFileLaneExecutor);
+        copyExecutors.forEach(ExecutorService::shutdown); // Disable new tasks from being submitted
+        boolean terminated = true;
         try {
-            // Wait a while for existing tasks to terminate
-            if (!executor.awaitTermination(timeoutInHours, TimeUnit.HOURS)) {
-                executor.shutdownNow(); // Cancel currently executing tasks
-                // Wait a while for tasks to respond to being cancelled
-                if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
-                    System.err.println("Executor did not terminate");
+            // Wait a while for existing tasks to terminate, all lanes share the same timeout
+            long deadlineNanos = System.nanoTime() + TimeUnit.HOURS.toNanos(timeoutInHours);
+            for (ExecutorService copyExecutor : copyExecutors) {
+                if (!copyExecutor.awaitTermination(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    terminated = false;
+                    copyExecutor.shutdownNow(); // Cancel currently executing tasks
+                    // Wait a while for tasks to respond to being cancelled
+                    if (!copyExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+                        System.err.println("Executor did not terminate");
+                    }
                 }
             }
         } catch (InterruptedException ex) {
+            terminated = false;
             // (Re-)Cancel if current thread also interrupted
-            executor.shutdownNow();
+            copyExecutors.forEach(ExecutorService::shutdownNow);
             // Preserve interrupt status
             Thread.currentThread().interrupt();
+        } finally {
+            statsReporter.shutdownNow();
+            printPipelineStats();
+            // Copy threads are done (or cancelled), no more downloads or parts will be requested.
+            streamingExecutor.shutdownNow();
+            largeFilePartExecutor.shutdownNow();
+            // Copy threads may list target folders for the listing cache, so prefetching stops only now.
+            listingPrefetchExecutor.shutdownNow();
         }
+        return terminated;
     }
 
-    private Path exportBoxItemMappingListToFile(List<BoxItemMapping> boxItemMappingList) {
-        String userHomeDirectory = System.getProperty("user.home");
-        String fileName = generateExportFileName();
-        Path filePath = Paths.get(userHomeDirectory, fileName);
-        try {
-            Files.writeString(filePath, Utils.convertToJsonString(boxItemMappingList),
-                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
-        return filePath;
+    private MappingOutputWriter createMappingOutputWriter(Properties properties) {
+        OutputFormat outputFormat = OutputFormat.valueOf(properties.getProperty("outputFormat"));
+        int flushBatchSize = Integer.parseInt(properties.getProperty("outputFlushBatchSize"));
+        Path filePath = outputDirectory.resolve(generateExportFileName(outputFormat));
+        return new MappingOutputWriter(filePath, outputFormat, flushBatchSize);
     }
 
-    private String generateExportFileName() {
+    private String generateExportFileName(OutputFormat outputFormat) {
         Instant timestamp = Instant.now();
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd'-'HHmmss").withZone(ZoneId.systemDefault());
-        return "copy-box-folder-output-" + formatter.format(timestamp) + ".json";
+        String extension = outputFormat == OutputFormat.CSV ? ".csv" : ".jsonl";
+        return "copy-box-folder-output-" + formatter.format(timestamp) + extension;
     }
 
-    private void copyChildItems(
-            BoxDeveloperEditionAPIConnection sourceApi, String sourceFolderId,
-            BoxDeveloperEditionAPIConnection targetApi, String targetFolderId,
-            List<BoxItemMapping> boxItemMappingList) {
-        BoxFolder sourceFolder = new BoxFolder(sourceApi, sourceFolderId);
-        long offset = 0;
-        long limit = 100;
-        while (true) {
-            PartialCollection<BoxItem.Info> itemCollection = sourceFolder.getChildrenRange(offset, limit);
-            if (itemCollection.isEmpty()) {
-                break;
+    /**
+     * Folders are traversed in parallel on the traversal pool. Files found are handed to the copy executor.
+     * Returns when all folders are created and all files are submitted, not when the files are copied.
+     */
+    private void copyFolderTree(
+            StorageBackend sourceStorage, String sourceFolderId,
+            StorageBackend targetStorage, String targetFolderId,
+            MappingOutputWriter mappingOutputWriter) {
+        StorageItem sourceFolder = new StorageItem(BoxItemType.FOLDER, sourceFolderId, null, 0, null, null, null);
+        traversalPool.invoke(new CopyFolderTask(
+                null, sourceStorage, null, sourceFolder, targetStorage, targetFolderId, mappingOutputWriter));
+    }
+
+    private SourceTreeManifest scanSourceTree(StorageBackend sourceStorage, String sourceFolderId) {
+        SourceTreeManifest sourceTreeManifest = new SourceTreeManifest();
+        traversalPool.invoke(new ScanFolderTask(null, sourceFolderId, sourceTreeManifest));
+        return sourceTreeManifest;
+    }
+
+    /**
+     * Lists a source folder into the manifest and forks a task for each subfolder. Nothing is written to the target.
+     */
+    private class ScanFolderTask extends CountedCompleter<Void> {
+
+        private final String sourceFolderId;
+        private final SourceTreeManifest sourceTreeManifest;
+
+        ScanFolderTask(CountedCompleter<?> parentTask, String sourceFolderId, SourceTreeManifest sourceTreeManifest) {
+            super(parentTask);
+            this.sourceFolderId = sourceFolderId;
+            this.sourceTreeManifest = sourceTreeManifest;
+        }
+
+        @Override
+        public void compute() {
+            try (FolderLister.Listing listing = sourceLister.list(sourceFolderId)) {
+                for (StorageItem sourceItem : listing) {
+                    if (sourceItem.getType() == BoxItemType.FILE) {
+                        sourceTreeManifest.addFile(sourceFolderId, sourceItem);
+                        metrics.fileDiscovered(sourceItem.getSize());
+                    } else if (isUnchangedFolder(sourceItem, sourceFolderId)) {
+                        // Its items are carried over from the sync state by the copy task, they are counted there.
+                        sourceTreeManifest.addUnlistedFolder(sourceFolderId, sourceItem);
+                        metrics.folderDiscovered();
+                    } else {
+                        sourceTreeManifest.addFolder(sourceFolderId, sourceItem);
+                        metrics.folderDiscovered();
+                        addToPendingCount(1);
+                        new ScanFolderTask(this, sourceItem.getId(), sourceTreeManifest).fork();
+                    }
+                }
+            }
+            tryComplete();
+        }
+    }
+
+    /**
+     * Creates the target folder (unless it is the root folder which already exists), then lists the source folder.
+     * Subfolders are forked as new tasks. Since CountedCompleter keeps a pending count instead of joining,
+     * no traversal thread blocks waiting for another, and the root task completes only after all descendants complete.
+     * With a manifest, subfolders come from the manifest instead of a listing and files are left to copyPlannedFiles.
+     * In incremental mode, a folder unchanged since the previous run is not listed, its items are taken from the sync state.
+     */
+    private class CopyFolderTask extends CountedCompleter<Void> {
+
+        private final StorageBackend sourceStorage;
+        private final String sourceParentFolderId;
+        private final StorageItem sourceFolder;
+        private final StorageBackend targetStorage;
+        private final String targetParentFolderId;
+        private final MappingOutputWriter mappingOutputWriter;
+
+        /**
+         * @param sourceFolder Has no name if it is the root folder, in this case targetParentFolderId is the target folder itself.
+         */
+        CopyFolderTask(
+                CountedCompleter<?> parentTask,
+                StorageBackend sourceStorage, String sourceParentFolderId, StorageItem sourceFolder,
+                StorageBackend targetStorage, String targetParentFolderId,
+                MappingOutputWriter mappingOutputWriter) {
+            super(parentTask);
+            this.sourceStorage = sourceStorage;
+            this.sourceParentFolderId = sourceParentFolderId;
+            this.sourceFolder = sourceFolder;
+            this.targetStorage = targetStorage;
+            this.targetParentFolderId = targetParentFolderId;
+            this.mappingOutputWriter = mappingOutputWriter;
+        }
+
+        @Override
+        public void compute() {
+            String sourceFolderId = sourceFolder.getId();
+            String sourceFolderName = sourceFolder.getName();
+            String targetFolderId = targetParentFolderId;
+            if (sourceFolderName != null) {
+                folderDiscovered();
+                BoxItemMapping completedMapping = completedItemIndex.get(sourceFolderId);
+                String syncedFolderId = completedMapping == null && syncState != null
+                        ? findSyncedItem(targetStorage, sourceFolder, sourceParentFolderId, targetParentFolderId)
+                        : null;
+                if (completedMapping != null) {
+                    // Folder itself is created in a previous run, its children are still checked.
+                    targetFolderId = completedMapping.getTargetId();
+                    mappingOutputWriter.write(completedMapping);
+                    recordSyncState(sourceFolder, sourceParentFolderId, targetFolderId, targetParentFolderId);
+                    metrics.folderCompleted();
+                } else if (syncedFolderId != null) {
+                    targetFolderId = syncedFolderId;
+                    recordMapping(new BoxItemMapping(BoxItemType.FOLDER, sourceFolderId, targetFolderId), mappingOutputWriter);
+                    recordSyncState(sourceFolder, sourceParentFolderId, targetFolderId, targetParentFolderId);
+                    metrics.folderCompleted();
+                    if (isUnchangedFolder(sourceFolder, sourceParentFolderId)
+                            && targetParentFolderId.equals(syncState.getPrevious(sourceFolderId).getTargetParentId())) {
+                        carryForwardChildren(sourceFolderId, mappingOutputWriter);
+                        System.out.println("Folder is unchanged, skipped - sourceId: " + sourceFolderId + ", targetId: " + targetFolderId);
+                        tryComplete();
+                        return;
+                    }
+                } else {
+                    String copiedFolderId = serverSideFolderCopyEnabled
+                            ? copyFolderOnServerIfNotExists(targetStorage, sourceFolderId, targetParentFolderId, sourceFolderName)
+                            : null;
+                    if (copiedFolderId != null) {
+                        recordMapping(new BoxItemMapping(BoxItemType.FOLDER, sourceFolderId, copiedFolderId), mappingOutputWriter);
+                        recordSyncState(sourceFolder, sourceParentFolderId, copiedFolderId, targetParentFolderId);
+                        metrics.folderCompleted();
+                        System.out.println("Folder copied on server - sourceId: " + sourceFolderId + ", targetId: " + copiedFolderId);
+                        addToPendingCount(1);
+                        new MapCopiedFolderTask(this, sourceStorage, sourceFolderId, targetStorage, copiedFolderId, mappingOutputWriter).fork();
+                        tryComplete();
+                        return;
+                    }
+                    targetFolderId = createFolderIfNotExists(targetStorage, targetParentFolderId, sourceFolderName);
+                    recordMapping(new BoxItemMapping(BoxItemType.FOLDER, sourceFolderId, targetFolderId), mappingOutputWriter);
+                    recordSyncState(sourceFolder, sourceParentFolderId, targetFolderId, targetParentFolderId);
+                    metrics.folderCompleted();
+                    System.out.println("Folder created or already exists - sourceId: " + sourceFolderId + ", targetId: " + targetFolderId);
+                }
+            }
+            // A folder the scan didn't list (unchanged, but its target moved) is listed here instead.
+            if (manifest != null && manifest.isListed(sourceFolderId)) {
+                plannedTargetFolderIds.put(sourceFolderId, targetFolderId);
+                for (StorageItem subfolder : manifest.getSubfolders(sourceFolderId)) {
+                    addToPendingCount(1);
+                    new CopyFolderTask(this, sourceStorage, sourceFolderId, subfolder,
+                            targetStorage, targetFolderId, mappingOutputWriter).fork();
+                }
             } else {
-                for (BoxItem.Info sourceItemInfo: itemCollection) {
-                    copyItem(sourceApi, sourceItemInfo, targetApi, targetFolderId, boxItemMappingList);
+                copyChildItems(sourceStorage, sourceFolderId, targetStorage, targetFolderId, mappingOutputWriter, this);
+            }
+            tryComplete();
+        }
+    }
+
+    /**
+     * A whole subtree copied on Box servers has new ids. This task finds them by matching the children of the source folder
+     * and its copy by type and name, so the output has a mapping for every item as if it was copied item by item.
+     * An item missing in the copy is copied the usual way.
+     */
+    private class MapCopiedFolderTask extends CountedCompleter<Void> {
+
+        private final StorageBackend sourceStorage;
+        private final String sourceFolderId;
+        private final StorageBackend targetStorage;
+        private final String copiedFolderId;
+        private final MappingOutputWriter mappingOutputWriter;
+
+        MapCopiedFolderTask(
+                CountedCompleter<?> parentTask,
+                StorageBackend sourceStorage, String sourceFolderId,
+                StorageBackend targetStorage, String copiedFolderId,
+                MappingOutputWriter mappingOutputWriter) {
+            super(parentTask);
+            this.sourceStorage = sourceStorage;
+            this.sourceFolderId = sourceFolderId;
+            this.targetStorage = targetStorage;
+            this.copiedFolderId = copiedFolderId;
+            this.mappingOutputWriter = mappingOutputWriter;
+        }
+
+        @Override
+        public void compute() {
+            Map<String, String> copiedIds = new HashMap<>();
+            try (FolderLister.Listing listing = targetLister.list(copiedFolderId)) {
+                for (StorageItem copiedItem : listing) {
+                    copiedIds.put(copiedItem.getType() + "/" + copiedItem.getName(), copiedItem.getId());
                 }
-                if (itemCollection.size() < limit) {
-                    break;
+            }
+            try (FolderLister.Listing listing = sourceLister.list(sourceFolderId)) {
+                for (StorageItem sourceItem : listing) {
+                    String copiedId = copiedIds.get(sourceItem.getType() + "/" + sourceItem.getName());
+                    if (copiedId == null) {
+                        copyItem(sourceStorage, sourceFolderId, sourceItem, targetStorage, copiedFolderId, mappingOutputWriter, this);
+                    } else if (sourceItem.getType() == BoxItemType.FILE) {
+                        recordMapping(new BoxItemMapping(BoxItemType.FILE, sourceItem.getId(), copiedId), mappingOutputWriter);
+                        recordSyncState(sourceItem, sourceFolderId, copiedId, copiedFolderId);
+                        fileDiscovered(sourceItem.getSize());
+                        metrics.fileCompleted(sourceItem.getSize());
+                    } else {
+                        recordMapping(new BoxItemMapping(BoxItemType.FOLDER, sourceItem.getId(), copiedId), mappingOutputWriter);
+                        recordSyncState(sourceItem, sourceFolderId, copiedId, copiedFolderId);
+                        folderDiscovered();
+                        metrics.folderCompleted();
+                        addToPendingCount(1);
+                        new MapCopiedFolderTask(this, sourceStorage, sourceItem.getId(), targetStorage, copiedId, mappingOutputWriter).fork();
+                    }
                 }
-                offset += limit;
+            }
+            tryComplete();
+        }
+    }
+
+    /**
+     * Items are handed over as they are listed, the next page is fetched meanwhile.
+     */
+    private void copyChildItems(
+            StorageBackend sourceStorage, String sourceFolderId,
+            StorageBackend targetStorage, String targetFolderId,
+            MappingOutputWriter mappingOutputWriter, CountedCompleter<?> currentTask) {
+        try (FolderLister.Listing listing = sourceLister.list(sourceFolderId)) {
+            for (StorageItem sourceItem : listing) {
+                copyItem(sourceStorage, sourceFolderId, sourceItem, targetStorage, targetFolderId, mappingOutputWriter, currentTask);
             }
         }
     }
 
     private void copyItem(
-            BoxDeveloperEditionAPIConnection sourceApi, BoxItem.Info sourceItemInfo,
-            BoxDeveloperEditionAPIConnection targetApi, String targetFolderId,
-            List<BoxItemMapping> boxItemMappingList) {
-        if (sourceItemInfo instanceof BoxFile.Info) {
-            String fileId = sourceItemInfo.getID();
-            String fileName = sourceItemInfo.getName();
-            long fileSize = sourceItemInfo.getSize();
-            executor.submit(() -> {
-                String copiedFileId = copyFileIfNotExists(sourceApi, fileId, fileName, fileSize, targetApi, targetFolderId);
-                boxItemMappingList.add(new BoxItemMapping(BoxItemType.FILE, fileId, copiedFileId));
-                System.out.println("File copied or already exists - sourceId: " + fileId + ", targetId: " + copiedFileId);
-            });
-        } else if (sourceItemInfo instanceof BoxFolder.Info) {
-            String folderId = sourceItemInfo.getID();
-            String folderName = sourceItemInfo.getName();
-            String createdFolderId = createFolderIfNotExists(targetApi, targetFolderId, folderName);
-            boxItemMappingList.add(new BoxItemMapping(BoxItemType.FOLDER, folderId, createdFolderId));
-            System.out.println("Folder created or already exists - sourceId: " + folderId + ", targetId: " + createdFolderId);
-            copyChildItems(sourceApi, folderId, targetApi, createdFolderId, boxItemMappingList);
+            StorageBackend sourceStorage, String sourceFolderId, StorageItem sourceItem,
+            StorageBackend targetStorage, String targetFolderId,
+            MappingOutputWriter mappingOutputWriter, CountedCompleter<?> currentTask) {
+        if (sourceItem.getType() == BoxItemType.FILE) {
+            fileDiscovered(sourceItem.getSize());
+            submitFileCopy(executor, sourceStorage, sourceFolderId, sourceItem, targetStorage, targetFolderId, mappingOutputWriter);
+        } else {
+            currentTask.addToPendingCount(1);
+            new CopyFolderTask(currentTask, sourceStorage, sourceFolderId, sourceItem,
+                    targetStorage, targetFolderId, mappingOutputWriter).fork();
+        }
+    }
+
+    private Future<?> submitFileCopy(
+            ExecutorService laneExecutor, StorageBackend sourceStorage, String sourceFolderId, StorageItem sourceFile,
+            StorageBackend targetStorage, String targetFolderId, MappingOutputWriter mappingOutputWriter) {
+        String fileId = sourceFile.getId();
+        String fileName = sourceFile.getName();
+        long fileSize = sourceFile.getSize();
+        String fileSha1 = sourceFile.getSha1();
+        BoxItemMapping completedMapping = completedItemIndex.get(fileId);
+        if (completedMapping != null) {
+            mappingOutputWriter.write(completedMapping);
+            recordSyncState(sourceFile, sourceFolderId, completedMapping.getTargetId(), targetFolderId);
+            metrics.fileCompleted(fileSize);
+            return CompletableFuture.completedFuture(null);
+        }
+        return laneExecutor.submit(() -> {
+            String copiedFileId;
+            try {
+                copiedFileId = retryingThrottledTransfers(fileId, () -> syncState != null
+                        ? copyFileUsingStateIfSynced(sourceStorage, sourceFolderId, sourceFile, targetStorage, targetFolderId)
+                        : copyFileIfNotExists(sourceStorage, fileId, fileName, fileSize, fileSha1, targetStorage, targetFolderId));
+            } catch (RuntimeException e) {
+                metrics.fileFailed();
+                throw e;
+            }
+            recordMapping(new BoxItemMapping(BoxItemType.FILE, fileId, copiedFileId), mappingOutputWriter);
+            recordSyncState(sourceFile, sourceFolderId, copiedFileId, targetFolderId);
+            metrics.fileCompleted(fileSize);
+            System.out.println("File copied or already exists - sourceId: " + fileId + ", targetId: " + copiedFileId);
+        });
+    }
+
+    /**
+     * Submits the files of the manifest largest-first, once all target folders exist. Large files are submitted to
+     * their own lane from a separate thread, so small files don't wait behind a full large file queue.
+     * Files of folders copied on server are already mapped by MapCopiedFolderTask.
+     */
+    private void copyPlannedFiles(StorageBackend sourceStorage, StorageBackend targetStorage, MappingOutputWriter mappingOutputWriter) {
+        if (largeFileLaneExecutor == null) {
+            submitPlannedFiles(executor, manifest.getFilesLargestFirst(0, Long.MAX_VALUE),
+                    sourceStorage, targetStorage, mappingOutputWriter);
+            return;
+        }
+        FutureTask<Void> largeFileLaneSubmission = new FutureTask<>(() -> {
+            submitPlannedFiles(largeFileLaneExecutor, manifest.getFilesLargestFirst(largeFileLaneThresholdInBytes, Long.MAX_VALUE),
+                    sourceStorage, targetStorage, mappingOutputWriter);
+            return null;
+        });
+        new Thread(largeFileLaneSubmission, "large-file-lane-submitter").start();
+        submitPlannedFiles(executor, manifest.getFilesLargestFirst(0, largeFileLaneThresholdInBytes),
+                sourceStorage, targetStorage, mappingOutputWriter);
+        try {
+            largeFileLaneSubmission.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Large files couldn't be submitted.", e.getCause());
+        }
+    }
+
+    private void submitPlannedFiles(
+            ExecutorService laneExecutor, List<SourceTreeManifest.ManifestFile> files,
+            StorageBackend sourceStorage, StorageBackend targetStorage, MappingOutputWriter mappingOutputWriter) {
+        for (SourceTreeManifest.ManifestFile file : files) {
+            String targetFolderId = plannedTargetFolderIds.get(file.getParentFolderId());
+            if (targetFolderId != null) {
+                submitFileCopy(laneExecutor, sourceStorage, file.getParentFolderId(), file.getItem(),
+                        targetStorage, targetFolderId, mappingOutputWriter);
+            }
+        }
+    }
+
+    /**
+     * Runs a worker loop on each traversal thread until the shard directory has no tasks and no leases left.
+     * Leases of this worker are renewed on a separate thread, so a long task doesn't lose its lease.
+     */
+    private void copyShardedFolderTree(
+            Properties properties, StorageBackend sourceStorage, StorageBackend targetStorage, MappingOutputWriter mappingOutputWriter) {
+        int numberOfThreadsForTraversingFolders = Integer.parseInt(properties.getProperty("numberOfThreadsForTraversingFolders"));
+        long heartbeatIntervalInSeconds = Long.parseLong(properties.getProperty("shardHeartbeatIntervalInSeconds"));
+        long pollIntervalInMillis = Long.parseLong(properties.getProperty("shardPollIntervalInMillis"));
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(() -> {
+            try {
+                shardCoordinator.renewLeases();
+            } catch (RuntimeException e) {
+                // scheduleAtFixedRate stops on an exception, leases would expire while tasks are still running.
+                System.err.println("Shard leases couldn't be renewed: " + e.getMessage());
+            }
+        }, heartbeatIntervalInSeconds, heartbeatIntervalInSeconds, TimeUnit.SECONDS);
+        try {
+            List<Future<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < numberOfThreadsForTraversingFolders; i++) {
+                workers.add(traversalPool.submit(() -> {
+                    runShardWorker(sourceStorage, targetStorage, mappingOutputWriter, pollIntervalInMillis);
+                    return null;
+                }));
+            }
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Shard worker failed.", e.getCause());
+        } finally {
+            heartbeat.shutdownNow();
         }
     }
 
+    /**
+     * A task which fails releases its lease, so any worker can run it again, and the loop goes on with the next task.
+     */
+    private void runShardWorker(
+            StorageBackend sourceStorage, StorageBackend targetStorage, MappingOutputWriter mappingOutputWriter,
+            long pollIntervalInMillis) throws InterruptedException {
+        while (true) {
+            ShardCoordinator.Lease lease = shardCoordinator.claim();
+            if (lease == null) {
+                if (shardCoordinator.isFinished()) {
+                    return;
+                }
+                int reclaimed = shardCoordinator.reclaimExpiredLeases();
+                if (reclaimed > 0) {
+                    System.out.println("Expired shard leases are taken back: " + reclaimed);
+                }
+                Thread.sleep(pollIntervalInMillis);
+                continue;
+            }
+            try {
+                copyShardTask(sourceStorage, lease.getTask(), targetStorage, mappingOutputWriter);
+            } catch (RuntimeException e) {
+                System.err.println("Shard task failed - sourceFolderId: " + lease.getTask().getSourceFolderId() + ", " + e);
+                shardCoordinator.fail(lease, e);
+                continue;
+            }
+            shardCoordinator.complete(lease);
+        }
+    }
+
+    /**
+     * Copies the files of one source folder and creates its subfolders, which are published as tasks for any worker.
+     * The task completes only when its files are copied, so a worker dying in the middle leaves it to another worker.
+     * Failed files are counted and reported like in a single process run, the task is not run again for them.
+     */
+    private void copyShardTask(
+            StorageBackend sourceStorage, ShardTask task, StorageBackend targetStorage, MappingOutputWriter mappingOutputWriter) {
+        String sourceFolderId = task.getSourceFolderId();
+        String targetFolderId = task.getTargetFolderId();
+        List<Future<?>> fileCopies = new ArrayList<>();
+        try (FolderLister.Listing listing = sourceLister.list(sourceFolderId)) {
+            for (StorageItem sourceItem : listing) {
+                if (sourceItem.getType() == BoxItemType.FILE) {
+                    fileDiscovered(sourceItem.getSize());
+                    fileCopies.add(submitFileCopy(executor, sourceStorage, sourceFolderId, sourceItem,
+                            targetStorage, targetFolderId, mappingOutputWriter));
+                    continue;
+                }
+                folderDiscovered();
+                BoxItemMapping completedMapping = completedItemIndex.get(sourceItem.getId());
+                String targetSubfolderId;
+                if (completedMapping != null) {
+                    targetSubfolderId = completedMapping.getTargetId();
+                    mappingOutputWriter.write(completedMapping);
+                } else {
+                    targetSubfolderId = createFolderIfNotExists(targetStorage, targetFolderId, sourceItem.getName());
+                    recordMapping(new BoxItemMapping(BoxItemType.FOLDER, sourceItem.getId(), targetSubfolderId), mappingOutputWriter);
+                    System.out.println("Folder created or already exists - sourceId: " + sourceItem.getId() + ", targetId: " + targetSubfolderId);
+                }
+                metrics.folderCompleted();
+                shardCoordinator.publish(new ShardTask(sourceItem.getId(), targetSubfolderId));
+            }
+        }
+        for (Future<?> fileCopy : fileCopies) {
+            try {
+                fileCopy.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                System.err.println("File couldn't be copied - " + e.getCause());
+            }
+        }
+    }
+
+    /**
+     * The first worker to find the copy finished merges the journals of all workers into one output file in the
+     * shard directory. An item copied twice after a lease expired is written once.
+     */
+    private void mergeShardOutputsIfFinished(Properties properties, String sourceFolderId, String targetFolderId) {
+        if (!shardCoordinator.isFinished() || !shardCoordinator.tryStartMerge()) {
+            return;
+        }
+        Map<String, BoxItemMapping> mappings = loadShardJournals(properties, sourceFolderId, targetFolderId);
+        OutputFormat outputFormat = OutputFormat.valueOf(properties.getProperty("outputFormat"));
+        int flushBatchSize = Integer.parseInt(properties.getProperty("outputFlushBatchSize"));
+        Path filePath = shardCoordinator.getDirectory().resolve(generateExportFileName(outputFormat));
+        try (MappingOutputWriter mergedOutputWriter = new MappingOutputWriter(filePath, outputFormat, flushBatchSize)) {
+            mappings.values().forEach(mergedOutputWriter::write);
+        }
+        System.out.println("Outputs of all workers are merged, " + mappings.size() + " items: " + filePath.toAbsolutePath());
+        int failedTasks = shardCoordinator.getNumberOfFailedTasks();
+        if (failedTasks > 0) {
+            System.err.println("Folders not copied completely after all attempts: " + failedTasks
+                    + ", see " + shardCoordinator.getFailedDirectory().toAbsolutePath());
+        }
+    }
+
+    private Map<String, BoxItemMapping> loadShardJournals(Properties properties, String sourceFolderId, String targetFolderId) {
+        Map<String, BoxItemMapping> mappings = new HashMap<>();
+        for (Path workerDirectory : shardCoordinator.getWorkerDirectories()) {
+            Path journalFilePath = workerDirectory.resolve(properties.getProperty("checkpointJournalFileName"));
+            mappings.putAll(CheckpointJournal.load(journalFilePath, sourceFolderId, targetFolderId));
+        }
+        return mappings;
+    }
+
+    /**
+     * Items of a planned run are counted when the manifest is built.
+     */
+    private void fileDiscovered(long size) {
+        if (manifest == null) {
+            metrics.fileDiscovered(size);
+        }
+    }
+
+    private void folderDiscovered() {
+        if (manifest == null) {
+            metrics.folderDiscovered();
+        }
+    }
+
+    private void recordMapping(BoxItemMapping boxItemMapping, MappingOutputWriter mappingOutputWriter) {
+        checkpointJournal.record(boxItemMapping);
+        mappingOutputWriter.write(boxItemMapping);
+    }
+
+    private void recordSyncState(StorageItem sourceItem, String sourceParentFolderId, String targetId, String targetParentFolderId) {
+        if (syncState != null) {
+            syncState.record(SyncStateEntry.of(sourceItem, sourceParentFolderId, targetId, targetParentFolderId));
+        }
+    }
+
+    /**
+     * A folder is unchanged if it is in the same place and has the same etag and modified_at as in the previous run.
+     */
+    private boolean isUnchangedFolder(StorageItem sourceFolder, String sourceParentFolderId) {
+        if (syncState == null || !skipUnchangedFolders) {
+            return false;
+        }
+        SyncStateEntry previous = syncState.getPrevious(sourceFolder.getId());
+        return previous != null && previous.getType() == BoxItemType.FOLDER
+                && sourceParentFolderId.equals(previous.getSourceParentId())
+                && sourceFolder.getName().equals(previous.getName())
+                && sourceFolder.getEtag() != null && sourceFolder.getEtag().equals(previous.getEtag())
+                && sourceFolder.getModifiedAt() != null && sourceFolder.getModifiedAt().equals(previous.getModifiedAt());
+    }
+
+    /**
+     * A file's content is compared by sha1 when both are known, otherwise by etag and size.
+     */
+    private boolean isUnchangedFile(StorageItem sourceFile, SyncStateEntry previous) {
+        if (sourceFile.getSha1() != null && previous.getSha1() != null) {
+            return sourceFile.getSha1().equalsIgnoreCase(previous.getSha1());
+        }
+        return sourceFile.getEtag() != null && sourceFile.getEtag().equals(previous.getEtag())
+                && sourceFile.getSize() == previous.getSize();
+    }
+
+    /**
+     * Items below an unchanged folder are taken from the state of the previous run, the source is not listed and the target is not checked.
+     */
+    private void carryForwardChildren(String sourceFolderId, MappingOutputWriter mappingOutputWriter) {
+        Deque<String> folderIds = new ArrayDeque<>();
+        folderIds.push(sourceFolderId);
+        while (!folderIds.isEmpty()) {
+            for (SyncStateEntry entry : syncState.getPreviousChildren(folderIds.pop())) {
+                syncState.carryForward(entry);
+                recordMapping(new BoxItemMapping(entry.getType(), entry.getSourceId(), entry.getTargetId()), mappingOutputWriter);
+                if (entry.getType() == BoxItemType.FILE) {
+                    metrics.fileDiscovered(entry.getSize());
+                    metrics.fileCompleted(entry.getSize());
+                    metrics.fileSkipped();
+                } else {
+                    metrics.folderDiscovered();
+                    metrics.folderCompleted();
+                    folderIds.push(entry.getSourceId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the target id of an item synced by the previous run. If the item is moved or renamed in the source since then,
+     * its copy is moved in the target too, instead of copying it again under the new name.
+     * Returns null if the item is not in the state, or its copy can't be moved (deleted, or the name is taken),
+     * or its target parent is not the one it was synced into. The item is then copied by name like in a full run.
+     */
+    private String findSyncedItem(
+            StorageBackend targetStorage, StorageItem sourceItem, String sourceParentFolderId, String targetParentFolderId) {
+        SyncStateEntry previous = syncState.getPrevious(sourceItem.getId());
+        if (previous == null || previous.getType() != sourceItem.getType()) {
+            return null;
+        }
+        if (sourceParentFolderId.equals(previous.getSourceParentId()) && sourceItem.getName().equals(previous.getName())) {
+            return targetParentFolderId.equals(previous.getTargetParentId()) ? previous.getTargetId() : null;
+        }
+        try {
+            StorageItem movedItem = targetLimiter.execute(BoxOperation.MOVE, true, () -> sourceItem.getType() == BoxItemType.FILE
+                    ? targetStorage.moveFile(previous.getTargetId(), targetParentFolderId, sourceItem.getName())
+                    : targetStorage.moveFolder(previous.getTargetId(), targetParentFolderId, sourceItem.getName()));
+            System.out.println("Moved in the target as in the source - sourceId: " + sourceItem.getId() + ", targetId: " + movedItem.getId());
+            return movedItem.getId();
+        } catch (BoxAPIException e) {
+            if (e.getResponseCode() != 404 && getConflictingIdIfItemNameInUse(e) == null) {
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A file synced by the previous run is skipped if its content is unchanged, otherwise a new version of its copy is uploaded.
+     * Other files, and files whose copy is deleted in the target, are checked by name like in a full run.
+     */
+    private String copyFileUsingStateIfSynced(
+            StorageBackend sourceStorage, String sourceFolderId, StorageItem sourceFile,
+            StorageBackend targetStorage, String targetFolderId) {
+        String sourceFileId = sourceFile.getId();
+        String syncedFileId = findSyncedItem(targetStorage, sourceFile, sourceFolderId, targetFolderId);
+        if (syncedFileId != null) {
+            if (isUnchangedFile(sourceFile, syncState.getPrevious(sourceFileId))) {
+                metrics.fileSkipped();
+                return syncedFileId;
+            }
+            System.out.println("File changed since the previous run, uploading a new version - sourceId: " + sourceFileId
+                    + ", targetId: " + syncedFileId);
+            try {
+                return downloadFromSourceAndUploadToTarget(
+                        sourceStorage, sourceFileId, sourceFile.getSize(), sourceFile.getSha1(),
+                        targetStorage, FileUploadTarget.newVersion(targetFolderId, sourceFile.getName(), syncedFileId));
+            } catch (BoxAPIException e) {
+                if (e.getResponseCode() != 404) {
+                    throw e;
+                }
+            }
+        }
+        return copyFileIfNotExists(sourceStorage, sourceFileId, sourceFile.getName(), sourceFile.getSize(), sourceFile.getSha1(),
+                targetStorage, targetFolderId);
+    }
+
+    /**
+     * Api calls reading from a stream can't be retried by the limiters, a throttled stream transfer restarts the whole file instead.
+     */
+    private String retryingThrottledTransfers(String sourceFileId, Supplier<String> fileCopy) {
+        int maxAttempts = sourceLimiter.isAdaptive() ? sourceLimiter.getMaxAttempts() : 1;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return fileCopy.get();
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !isCausedByThrottling(e)) {
+                    throw e;
+                }
+                metrics.transferRetried();
+                System.err.println("Transfer throttled, restarting - sourceId: " + sourceFileId + ", attempt: " + attempt);
+            }
+        }
+    }
+
+    private boolean isCausedByThrottling(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BoxAPIException && AdaptiveConcurrencyLimiter.isThrottled((BoxAPIException) cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Use copyFileIfNotExists method, it is faster.
      */
     @Deprecated
     private String copyFileIfNotExistsUsingSearchMethod(
-            BoxDeveloperEditionAPIConnection sourceApi, String sourceFileId, String sourceFileName, long sourceFileSize,
-            BoxDeveloperEditionAPIConnection targetApi, String targetFolderId) {
-        BoxItem.Info foundFileInfo = findFile(targetApi, targetFolderId, sourceFileName);
-        if (foundFileInfo != null) {
-            return foundFileInfo.getID();
+            StorageBackend sourceStorage, String sourceFileId, String sourceFileName, long sourceFileSize,
+            String sourceFileSha1, StorageBackend targetStorage, String targetFolderId) {
+        StorageItem foundFile = findFile(targetStorage, targetFolderId, sourceFileName);
+        if (foundFile != null) {
+            return foundFile.getId();
         } else {
             return downloadFromSourceAndUploadToTarget(
-                    sourceApi, sourceFileId, sourceFileName, sourceFileSize,
-                    targetApi, targetFolderId);
+                    sourceStorage, sourceFileId, sourceFileSize, sourceFileSha1,
+                    targetStorage, FileUploadTarget.newFile(targetFolderId, sourceFileName));
         }
     }
 
     private String copyFileIfNotExists(
-            BoxDeveloperEditionAPIConnection sourceApi, String sourceFileId, String sourceFileName, long sourceFileSize,
-            BoxDeveloperEditionAPIConnection targetApi, String targetFolderId) {
-        String foundFileId = findFileIdUsingCanUploadMethod(targetApi, targetFolderId, sourceFileName);
-        if (foundFileId != null) {
-            return foundFileId;
+            StorageBackend sourceStorage, String sourceFileId, String sourceFileName, long sourceFileSize,
+            String sourceFileSha1, StorageBackend targetStorage, String targetFolderId) {
+        if (targetListingCache != null) {
+            return copyFileIfNotExistsUsingListingCache(
+                    sourceStorage, sourceFileId, sourceFileName, sourceFileSize, sourceFileSha1,
+                    targetStorage, targetFolderId);
+        }
+        JsonNode existingFile = findFileUsingCanUploadMethod(targetStorage, targetFolderId, sourceFileName);
+        if (existingFile != null) {
+            return copyFileIfContentChanged(
+                    sourceStorage, sourceFileId, sourceFileName, sourceFileSize, sourceFileSha1,
+                    targetStorage, targetFolderId, existingFile.get("id").textValue(), getTextOrNull(existingFile, "sha1"));
         } else {
             return downloadFromSourceAndUploadToTarget(
-                    sourceApi, sourceFileId, sourceFileName, sourceFileSize,
-                    targetApi, targetFolderId);
+                    sourceStorage, sourceFileId, sourceFileSize, sourceFileSha1,
+                    targetStorage, FileUploadTarget.newFile(targetFolderId, sourceFileName));
         }
     }
 
-    private String findFileIdUsingCanUploadMethod(BoxDeveloperEditionAPIConnection api, String parentFolderId, String name) {
-        BoxFolder parentFolder = new BoxFolder(api, parentFolderId);
+    /**
+     * No preflight call, existence is checked against the cached listing of the target folder.
+     * If the file is created by someone else after the listing, upload fails with 409 and the conflicting file is used.
+     */
+    private String copyFileIfNotExistsUsingListingCache(
+            StorageBackend sourceStorage, String sourceFileId, String sourceFileName, long sourceFileSize,
+            String sourceFileSha1, StorageBackend targetStorage, String targetFolderId) {
+        TargetFolderListingCache.ListedItem existingFile = targetListingCache.find(targetFolderId, BoxItemType.FILE, sourceFileName);
+        if (existingFile != null) {
+            return copyFileIfContentChanged(
+                    sourceStorage, sourceFileId, sourceFileName, sourceFileSize, sourceFileSha1,
+                    targetStorage, targetFolderId, existingFile.getId(), existingFile.getSha1());
+        }
         try {
-            long size = 1; // For our use case, any number greater than 0 is ok.
-            parentFolder.canUpload(name, size);
-            return null;
+            return downloadFromSourceAndUploadToTarget(
+                    sourceStorage, sourceFileId, sourceFileSize, sourceFileSha1,
+                    targetStorage, FileUploadTarget.newFile(targetFolderId, sourceFileName));
         } catch (BoxAPIException e) {
-            String conflictingId = getConflictingIdIfItemNameInUse(e);
-            if (conflictingId != null) {
-                return conflictingId;
+            JsonNode conflictingItem = getConflictingItemIfItemNameInUse(e);
+            if (conflictingItem != null) {
+                JsonNode conflictingFile = requireConflictingFile(conflictingItem, targetFolderId, sourceFileName);
+                return copyFileIfContentChanged(
+                        sourceStorage, sourceFileId, sourceFileName, sourceFileSize, sourceFileSha1,
+                        targetStorage, targetFolderId, conflictingFile.get("id").textValue(), getTextOrNull(conflictingFile, "sha1"));
             } else {
                 throw e;
             }
         }
     }
 
-    private BoxItem.Info findFile(BoxDeveloperEditionAPIConnection api, String parentFolderId, String name) {
-        return findItem(api, parentFolderId, "file", name);
+    /**
+     * A file with the same name exists in the target. If its sha1 is the same as the source, nothing is transferred.
+     * Otherwise changedFilePolicy decides what happens. If the source sha1 is not known, files are matched by name only.
+     * @param targetFileSha1 Sha1 of the target file if it is already known from a listing or a 409 response, otherwise null.
+     */
+    private String copyFileIfContentChanged(
+            StorageBackend sourceStorage, String sourceFileId, String sourceFileName, long sourceFileSize,
+            String sourceFileSha1, StorageBackend targetStorage, String targetFolderId,
+            String targetFileId, String targetFileSha1) {
+        if (sourceFileSha1 == null) {
+            metrics.fileSkipped();
+            return targetFileId;
+        }
+        if (targetFileSha1 == null) {
+            targetFileSha1 = targetLimiter.execute(BoxOperation.GET_INFO, true, () -> targetStorage.getFile(targetFileId)).getSha1();
+        }
+        if (sourceFileSha1.equalsIgnoreCase(targetFileSha1)) {
+            metrics.fileSkipped();
+            return targetFileId;
+        }
+        switch (changedFilePolicy) {
+            case UPLOAD_NEW_VERSION:
+                System.out.println("File content changed, uploading a new version - sourceId: " + sourceFileId + ", targetId: " + targetFileId);
+                return downloadFromSourceAndUploadToTarget(
+                        sourceStorage, sourceFileId, sourceFileSize, sourceFileSha1,
+                        targetStorage, FileUploadTarget.newVersion(targetFolderId, sourceFileName, targetFileId));
+            case REPLACE:
+                System.out.println("File content changed, replacing the file - sourceId: " + sourceFileId + ", targetId: " + targetFileId);
+                return replaceFile(sourceStorage, sourceFileId, sourceFileName, sourceFileSize, sourceFileSha1,
+                        targetStorage, targetFolderId, targetFileId);
+            default:
+                metrics.fileSkipped();
+                System.out.println("File content changed, keeping the existing file - sourceId: " + sourceFileId + ", targetId: " + targetFileId);
+                return targetFileId;
+        }
     }
 
-    private BoxItem.Info findFolder(BoxDeveloperEditionAPIConnection api, String parentFolderId, String name) {
-        return findItem(api, parentFolderId, "folder", name);
+    /**
+     * The source file is uploaded under a temporary name first, and the target file is deleted only after that succeeds.
+     * If the rename fails or the process stops before it, the new content is left under the temporary name,
+     * the target file is never lost without its replacement.
+     */
+    private String replaceFile(
+            StorageBackend sourceStorage, String sourceFileId, String sourceFileName, long sourceFileSize,
+            String sourceFileSha1, StorageBackend targetStorage, String targetFolderId, String targetFileId) {
+        String stagingName = sourceFileName + ".copy-box-folder-" + UUID.randomUUID() + ".tmp";
+        String stagedFileId = downloadFromSourceAndUploadToTarget(
+                sourceStorage, sourceFileId, sourceFileSize, sourceFileSha1,
+                targetStorage, FileUploadTarget.newFile(targetFolderId, stagingName));
+        deleteFileIfExists(targetStorage, targetFileId);
+        return targetLimiter.execute(BoxOperation.MOVE, true,
+                () -> targetStorage.moveFile(stagedFileId, targetFolderId, sourceFileName)).getId();
     }
 
-    // Immediately after creating a folder/file, search method may not find it. I have seen this issue a few times.
-    // Probably, search method is using a cache in Box.
-    private BoxItem.Info findItem(BoxDeveloperEditionAPIConnection api, String parentFolderId, String type, String name) {
-        BoxSearch boxSearch = new BoxSearch(api);
-        BoxSearchParameters searchParams = new BoxSearchParameters();
-        searchParams.setType(type);
-        // Search results will also include items within any subfolders of those ancestor folders.
-        // So, we are checking direct parent-child relationship while iterating search results.
-        searchParams.setAncestorFolderIds(Arrays.asList(parentFolderId));
-        searchParams.setContentTypes(Arrays.asList("name"));
-        searchParams.setQuery("\"" + name + "\""); // We are using a quoted query to get exact matches only.
-        PartialCollection<BoxItem.Info> searchResults = boxSearch.searchRange(0, 100, searchParams);
-        // Why do we need a loop here? Please, read this: A search for "Blue-Box" may return search results including
-        // the sequence "blue.box", "Blue Box", and "Blue-Box"; any item containing the words Blue and Box consecutively, in the order specified.
-        // For more details, visit https://developer.box.com/reference/get-search/#param-query
-        List<BoxItem.Info> items = new ArrayList<>();
-        for (BoxItem.Info info : searchResults) {
-            if (info.getParent().getID().equals(parentFolderId) && info.getName().equals(name)) {
-                items.add(info);
+    /**
+     * A restarted transfer may try to delete a file which is already deleted by the previous attempt.
+     */
+    private void deleteFileIfExists(StorageBackend storage, String fileId) {
+        try {
+            targetLimiter.execute(BoxOperation.DELETE, true, () -> storage.deleteFile(fileId));
+        } catch (BoxAPIException e) {
+            if (e.getResponseCode() != 404) {
+                throw e;
             }
         }
-        if (items.size() == 0) {
+    }
+
+    /**
+     * Returns the conflicting file from the 409 response (id and sha1), or null if there is no file with the given name.
+     */
+    private JsonNode findFileUsingCanUploadMethod(StorageBackend storage, String parentFolderId, String name) {
+        try {
+            long size = 1; // For our use case, any number greater than 0 is ok.
+            targetLimiter.execute(BoxOperation.CAN_UPLOAD, true, () -> storage.canUpload(parentFolderId, name, size));
             return null;
-        } else if (items.size() == 1) {
-            return items.get(0);
-        } else {
-            throw new RuntimeException("This shouldn't happen, there must be a bug in the code.");
+        } catch (BoxAPIException e) {
+            JsonNode conflictingItem = getConflictingItemIfItemNameInUse(e);
+            if (conflictingItem != null) {
+                return requireConflictingFile(conflictingItem, parentFolderId, name);
+            } else {
+                throw e;
+            }
         }
     }
 
+    private StorageItem findFile(StorageBackend storage, String parentFolderId, String name) {
+        return targetLimiter.execute(BoxOperation.SEARCH, true, () -> storage.searchChild(parentFolderId, BoxItemType.FILE, name));
+    }
+
+    private StorageItem findFolder(StorageBackend storage, String parentFolderId, String name) {
+        return targetLimiter.execute(BoxOperation.SEARCH, true, () -> storage.searchChild(parentFolderId, BoxItemType.FOLDER, name));
+    }
+
+    /**
+     * A file can't be copied when a folder has its name in the target, a folder has no sha1 or content to compare.
+     */
+    private JsonNode requireConflictingFile(JsonNode conflictingItem, String parentFolderId, String name) {
+        if ("folder".equals(getTextOrNull(conflictingItem, "type"))) {
+            throw new IllegalStateException("A folder with the same name exists in the target, the file can't be copied - name: "
+                    + name + ", targetFolderId: " + parentFolderId + ", conflictingFolderId: " + getTextOrNull(conflictingItem, "id"));
+        }
+        return conflictingItem;
+    }
+
+    /**
+     * Sha1 of the content is computed while the bytes pass through, and checked against the source sha1 (if known)
+     * and the sha1 the target reports for the uploaded file. Content isn't read a second time for this.
+     */
     private String downloadFromSourceAndUploadToTarget(
-            BoxDeveloperEditionAPIConnection sourceApi, String sourceFileId, String sourceFileName, long sourceFileSize,
-            BoxDeveloperEditionAPIConnection targetApi, String targetFolderId) {
-        if (sourceFileSize <= 104857600) { // 100 MB
-            return downloadFromSourceAndUploadToTargetUsingMemory(sourceApi, sourceFileId, sourceFileName, targetApi, targetFolderId);
-        } else {
-            return downloadFromSourceAndUploadToTargetUsingTempFile(sourceApi, sourceFileId, sourceFileName, targetApi, targetFolderId);
+            StorageBackend sourceStorage, String sourceFileId, long sourceFileSize, String sourceFileSha1,
+            StorageBackend targetStorage, FileUploadTarget uploadTarget) {
+        if (serverSideCopyEnabled && !uploadTarget.isNewVersion()) {
+            StorageItem copiedFile = targetLimiter.execute(BoxOperation.COPY, true,
+                    () -> targetStorage.copyFile(sourceFileId, uploadTarget.getFolderId(), uploadTarget.getFileName()));
+            verifySha1(sourceFileId, sourceFileSha1, copiedFile.getSha1(), "Copied file");
+            return copiedFile.getId();
+        }
+        if (sourceFileSize >= largeFileThresholdInBytes) {
+            StorageItem uploadedFile = largeFileTransfer.transfer(
+                    sourceStorage, sourceFileId, sourceFileSize, sourceFileSha1, targetStorage, uploadTarget);
+            verifySha1(sourceFileId, sourceFileSha1, uploadedFile.getSha1(), "Uploaded file");
+            return uploadedFile.getId();
+        }
+        // Streaming needs a source and a target permit at the same time, which one limiter with a limit of one can't give.
+        if (transferMode == TransferMode.STREAM && AdaptiveConcurrencyLimiter.canAcquireBoth(sourceLimiter, targetLimiter)) {
+            return downloadFromSourceAndUploadToTargetUsingStream(sourceStorage, sourceFileId, sourceFileSha1, targetStorage, uploadTarget);
+        }
+        // When other workers hold the whole budget, the file is spooled to disk instead of waiting or risking OOM.
+        if (sourceFileSize <= inMemoryTransferMaxFileSizeInBytes) {
+            long bytesToReserve = roundUpToChunkSize(sourceFileSize);
+            if (memoryBudget.tryReserve(bytesToReserve)) {
+                try {
+                    return downloadFromSourceAndUploadToTargetUsingMemory(sourceStorage, sourceFileId, sourceFileSha1, targetStorage, uploadTarget);
+                } finally {
+                    memoryBudget.release(bytesToReserve);
+                }
+            }
+        }
+        return downloadFromSourceAndUploadToTargetUsingTempFile(sourceStorage, sourceFileId, sourceFileSha1, targetStorage, uploadTarget);
+    }
+
+    /**
+     * Does nothing if the expected sha1 is not known.
+     */
+    private void verifySha1(String sourceFileId, String expectedSha1, String actualSha1, String what) {
+        if (expectedSha1 != null && !expectedSha1.equalsIgnoreCase(actualSha1)) {
+            throw new RuntimeException(what + " doesn't match the expected sha1 - sourceId: " + sourceFileId
+                    + ", expected: " + expectedSha1 + ", actual: " + actualSha1);
         }
     }
 
+    private long roundUpToChunkSize(long size) {
+        long chunkSize = chunkBufferPool.getBufferSizeInBytes();
+        return ((size + chunkSize - 1) / chunkSize) * chunkSize;
+    }
+
     private String downloadFromSourceAndUploadToTargetUsingMemory(
-            BoxDeveloperEditionAPIConnection sourceApi, String sourceFileId, String sourceFileName,
-            BoxDeveloperEditionAPIConnection targetApi, String targetFolderId) {
-        byte[] bytes = downloadFile(sourceApi, sourceFileId);
-        BoxFile.Info uploadedFileInfo = uploadFile(targetApi, targetFolderId, sourceFileName, bytes);
-        return uploadedFileInfo.getID();
+            StorageBackend sourceStorage, String sourceFileId, String sourceFileSha1,
+            StorageBackend targetStorage, FileUploadTarget uploadTarget) {
+        PooledBuffer buffer = new PooledBuffer(chunkBufferPool);
+        MessageDigest digest = Utils.createSha1Digest();
+        try {
+            sourceLimiter.execute(BoxOperation.DOWNLOAD, true, () -> downloadFile(sourceStorage, sourceFileId, buffer, digest));
+            String downloadedSha1 = Utils.toHex(digest.digest());
+            verifySha1(sourceFileId, sourceFileSha1, downloadedSha1, "Downloaded file");
+            StorageItem uploadedFile = targetLimiter.execute(BoxOperation.UPLOAD, true,
+                    () -> uploadTarget.upload(targetStorage, countUploadedBytes(buffer.newInputStream()), downloadedSha1));
+            verifySha1(sourceFileId, downloadedSha1, uploadedFile.getSha1(), "Uploaded file");
+            return uploadedFile.getId();
+        } finally {
+            buffer.release();
+        }
     }
 
     private String downloadFromSourceAndUploadToTargetUsingTempFile(
-            BoxDeveloperEditionAPIConnection sourceApi, String sourceFileId, String sourceFileName,
-            BoxDeveloperEditionAPIConnection targetApi, String targetFolderId) {
+            StorageBackend sourceStorage, String sourceFileId, String sourceFileSha1,
+            StorageBackend targetStorage, FileUploadTarget uploadTarget) {
         Path filePath = null;
+        MessageDigest digest = Utils.createSha1Digest();
         try {
             filePath = Utils.createTempFile();
-            downloadFile(sourceApi, sourceFileId, filePath);
-            BoxFile.Info uploadedFileInfo = uploadFile(targetApi, targetFolderId, sourceFileName, filePath);
-            return uploadedFileInfo.getID();
+            Path tempFilePath = filePath;
+            sourceLimiter.execute(BoxOperation.DOWNLOAD, true, () -> downloadFile(sourceStorage, sourceFileId, tempFilePath, digest));
+            String downloadedSha1 = Utils.toHex(digest.digest());
+            verifySha1(sourceFileId, sourceFileSha1, downloadedSha1, "Downloaded file");
+            StorageItem uploadedFile = targetLimiter.execute(BoxOperation.UPLOAD, true,
+                    () -> uploadFile(targetStorage, uploadTarget, tempFilePath, downloadedSha1));
+            verifySha1(sourceFileId, downloadedSha1, uploadedFile.getSha1(), "Uploaded file");
+            return uploadedFile.getId();
         } finally {
             if (filePath != null) {
                 Utils.deleteFile(filePath);
@@ -287,62 +1454,176 @@ public class App {
         }
     }
 
-    private void downloadFile(BoxDeveloperEditionAPIConnection api, String fileId, Path filePath) {
-        BoxFile file = new BoxFile(api, fileId);
-        try (FileOutputStream outputStream = new FileOutputStream(filePath.toFile())) {
-            file.download(outputStream);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+    /**
+     * Download runs on a streaming thread and writes into a bounded pipe, upload reads from the other end of the pipe
+     * on the current thread. Neither the whole file nor a temp file is needed.
+     */
+    private String downloadFromSourceAndUploadToTargetUsingStream(
+            StorageBackend sourceStorage, String sourceFileId, String sourceFileSha1,
+            StorageBackend targetStorage, FileUploadTarget uploadTarget) {
+        long reservedBytes = reserveMemory(streamBufferPool.getBufferSizeInBytes());
+        byte[] pipeBuffer = streamBufferPool.acquire();
+        try {
+            return downloadFromSourceAndUploadToTargetUsingStream(
+                    sourceStorage, sourceFileId, sourceFileSha1, targetStorage, uploadTarget, new BoundedPipe(pipeBuffer));
+        } finally {
+            // Reader side of the pipe is closed at this point, so the download thread won't write into the buffer anymore.
+            streamBufferPool.release(pipeBuffer);
+            memoryBudget.release(reservedBytes);
+        }
+    }
+
+    private long reserveMemory(long bytes) {
+        try {
+            return memoryBudget.reserve(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
     }
 
-    private byte[] downloadFile(BoxDeveloperEditionAPIConnection api, String fileId) {
-        BoxFile file = new BoxFile(api, fileId);
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            file.download(outputStream);
-            return outputStream.toByteArray();
+    /**
+     * The whole content is not available before the upload starts, so the source sha1 from the listing is sent with
+     * the upload and the target rejects the file if the streamed bytes don't match it.
+     * The upload blocks until the download writes into the pipe, so the download permit is taken together with the
+     * upload permit, before either call starts. Otherwise uploads could hold every target permit while their downloads
+     * wait for a source permit held by other uploads waiting for a target permit.
+     */
+    private String downloadFromSourceAndUploadToTargetUsingStream(
+            StorageBackend sourceStorage, String sourceFileId, String sourceFileSha1,
+            StorageBackend targetStorage, FileUploadTarget uploadTarget, BoundedPipe pipe) {
+        MessageDigest digest = Utils.createSha1Digest();
+        AdaptiveConcurrencyLimiter.Permit[] permits = AdaptiveConcurrencyLimiter.acquireBoth(sourceLimiter, targetLimiter);
+        AdaptiveConcurrencyLimiter.Permit downloadPermit = permits[0];
+        AdaptiveConcurrencyLimiter.Permit uploadPermit = permits[1];
+        Future<?> downloadFuture;
+        try {
+            downloadFuture = streamingExecutor.submit(() -> {
+                // Pipe is closed only after a successful download, otherwise the reader would see a truncated file as complete.
+                try {
+                    OutputStream outputStream = new DigestOutputStream(countDownloadedBytes(pipe.getOutputStream()), digest);
+                    downloadPermit.execute(BoxOperation.DOWNLOAD, () -> sourceStorage.download(sourceFileId, outputStream));
+                    outputStream.close();
+                } catch (Throwable t) {
+                    pipe.fail(t);
+                    throw t;
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            downloadPermit.release();
+            uploadPermit.release();
+            throw e;
+        }
+        try (InputStream inputStream = countUploadedBytes(pipe.getInputStream())) {
+            StorageItem uploadedFile = uploadPermit.execute(BoxOperation.UPLOAD,
+                    () -> uploadTarget.upload(targetStorage, inputStream, sourceFileSha1));
+            waitForDownload(downloadFuture);
+            String downloadedSha1 = Utils.toHex(digest.digest());
+            verifySha1(sourceFileId, sourceFileSha1, downloadedSha1, "Downloaded file");
+            verifySha1(sourceFileId, downloadedSha1, uploadedFile.getSha1(), "Uploaded file");
+            return uploadedFile.getId();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
+        } finally {
+            // If upload fails, closing the pipe above makes the download fail fast. Cancel is for a download which is still waiting.
+            downloadFuture.cancel(true);
+            // A download cancelled before it started never uses its permit. Permits are released only once.
+            downloadPermit.release();
+            uploadPermit.release();
         }
     }
 
-    private BoxFile.Info uploadFile(BoxDeveloperEditionAPIConnection api, String parentFolderId, String fileName, Path filePath) {
-        BoxFolder parentFolder = new BoxFolder(api, parentFolderId);
-        try (FileInputStream inputStream = new FileInputStream(filePath.toFile())) {
-            return parentFolder.uploadFile(inputStream, fileName);
+    private OutputStream countDownloadedBytes(OutputStream outputStream) {
+        return new CountingOutputStream(outputStream, metrics.getDownloadedBytesCounter());
+    }
+
+    private InputStream countUploadedBytes(InputStream inputStream) {
+        return new CountingInputStream(inputStream, metrics.getUploadedBytesCounter());
+    }
+
+    private void waitForDownload(Future<?> downloadFuture) {
+        try {
+            downloadFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Download failed.", e.getCause());
+        }
+    }
+
+    private void downloadFile(StorageBackend storage, String fileId, Path filePath, MessageDigest digest) {
+        digest.reset();
+        try (OutputStream outputStream = new DigestOutputStream(countDownloadedBytes(new FileOutputStream(filePath.toFile())), digest)) {
+            storage.download(fileId, outputStream);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private BoxFile.Info uploadFile(BoxDeveloperEditionAPIConnection api, String parentFolderId, String fileName, byte[] bytes) {
-        BoxFolder parentFolder = new BoxFolder(api, parentFolderId);
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes)) {
-            return parentFolder.uploadFile(inputStream, fileName);
+    private void downloadFile(StorageBackend storage, String fileId, PooledBuffer buffer, MessageDigest digest) {
+        buffer.reset();
+        digest.reset();
+        storage.download(fileId, new DigestOutputStream(countDownloadedBytes(buffer.newOutputStream()), digest));
+    }
+
+    private StorageItem uploadFile(StorageBackend storage, FileUploadTarget uploadTarget, Path filePath, String sha1) {
+        try (InputStream inputStream = countUploadedBytes(new FileInputStream(filePath.toFile()))) {
+            return uploadTarget.upload(storage, inputStream, sha1);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    /**
+     * Returns null if the folder already exists in the target (it should be merged item by item),
+     * or if Box refuses to copy it, e.g. because it is too large to be copied in one call.
+     */
+    private String copyFolderOnServerIfNotExists(
+            StorageBackend targetStorage, String sourceFolderId, String targetParentFolderId, String folderName) {
+        if (targetListingCache != null && targetListingCache.findId(targetParentFolderId, BoxItemType.FOLDER, folderName) != null) {
+            return null;
+        }
+        try {
+            return targetLimiter.execute(BoxOperation.COPY, true,
+                    () -> targetStorage.copyFolder(sourceFolderId, targetParentFolderId)).getId();
+        } catch (BoxAPIException e) {
+            if (getConflictingIdIfItemNameInUse(e) == null) {
+                System.err.println("Folder couldn't be copied on server, copying item by item - sourceId: " + sourceFolderId
+                        + ", status: " + e.getResponseCode());
+            }
+            return null;
+        }
+    }
+
     /**
      * Use createFolderIfNotExists method, it is faster.
      */
-    private String createFolderIfNotExistsUsingSearchMethod(BoxDeveloperEditionAPIConnection api, String parentFolderId, String folderName) {
-        BoxItem.Info foundFolderInfo = findFolder(api, parentFolderId, folderName);
-        if (foundFolderInfo != null) {
-            return foundFolderInfo.getID();
+    private String createFolderIfNotExistsUsingSearchMethod(StorageBackend storage, String parentFolderId, String folderName) {
+        StorageItem foundFolder = findFolder(storage, parentFolderId, folderName);
+        if (foundFolder != null) {
+            return foundFolder.getId();
         } else {
-            BoxFolder parentFolder = new BoxFolder(api, parentFolderId);
-            BoxFolder.Info createdFolderInfo = parentFolder.createFolder(folderName);
-            return createdFolderInfo.getID();
+            return targetLimiter.execute(BoxOperation.CREATE_FOLDER, true,
+                    () -> storage.createFolder(parentFolderId, folderName)).getId();
         }
     }
 
-    private String createFolderIfNotExists(BoxDeveloperEditionAPIConnection api, String parentFolderId, String folderName) {
-        BoxFolder parentFolder = new BoxFolder(api, parentFolderId);
+    private String createFolderIfNotExists(StorageBackend storage, String parentFolderId, String folderName) {
+        if (targetListingCache != null) {
+            String foundFolderId = targetListingCache.findId(parentFolderId, BoxItemType.FOLDER, folderName);
+            if (foundFolderId != null) {
+                return foundFolderId;
+            }
+        }
         try {
-            BoxFolder.Info folderInfo = parentFolder.createFolder(folderName);
-            return folderInfo.getID();
+            StorageItem folder = targetLimiter.execute(BoxOperation.CREATE_FOLDER, true,
+                    () -> storage.createFolder(parentFolderId, folderName));
+            if (targetListingCache != null) {
+                targetListingCache.putEmptyFolder(folder.getId());
+            }
+            return folder.getId();
         } catch (BoxAPIException e) {
             String conflictingId = getConflictingIdIfItemNameInUse(e);
             if (conflictingId != null) {
@@ -354,7 +1635,15 @@ public class App {
     }
 
     private String getConflictingIdIfItemNameInUse(BoxAPIException e) {
-        String conflictingId = null;
+        JsonNode conflictingItem = getConflictingItemIfItemNameInUse(e);
+        return conflictingItem == null ? null : conflictingItem.get("id").textValue();
+    }
+
+    /**
+     * Returns the conflicting item (a mini representation including id, and sha1 for files), or null if the error is not item_name_in_use.
+     */
+    private JsonNode getConflictingItemIfItemNameInUse(BoxAPIException e) {
+        JsonNode conflictingItem = null;
         if (e.getResponseCode() == 409) {
             JsonNode jsonNodeRoot = Utils.convertToJsonNode(e.getResponse());
             JsonNode jsonNodeCode = jsonNodeRoot.get("code");
@@ -362,12 +1651,12 @@ public class App {
                 JsonNode jsonNodeContextInfo = jsonNodeRoot.get("context_info");
                 JsonNode jsonNodeConflicts = jsonNodeContextInfo.get("conflicts");
                 if (jsonNodeConflicts.isObject()) {
-                    conflictingId = jsonNodeConflicts.get("id").textValue();
+                    conflictingItem = jsonNodeConflicts;
                 } else if (jsonNodeConflicts.isArray()) {
                     int counter = 0;
                     for (JsonNode jsonNode : jsonNodeConflicts) {
                         counter++;
-                        conflictingId = jsonNode.get("id").textValue();
+                        conflictingItem = jsonNode;
                     }
                     if (counter != 1) {
                         throw new RuntimeException("Unexpected json response, conflicts array should have only one item.");
@@ -375,11 +1664,17 @@ public class App {
                 } else {
                     throw new RuntimeException("Unexpected json response, conflicts should be an object or an array.");
                 }
+                String conflictingId = conflictingItem == null ? null : getTextOrNull(conflictingItem, "id");
                 if (conflictingId == null || conflictingId.trim().length() == 0) {
                     throw new RuntimeException("Conflicting id is not found.");
                 }
             }
         }
-        return conflictingId;
+        return conflictingItem;
+    }
+
+    private String getTextOrNull(JsonNode jsonNode, String fieldName) {
+        JsonNode field = jsonNode.get(fieldName);
+        return field == null || field.isNull() ? null : field.textValue();
     }
 }
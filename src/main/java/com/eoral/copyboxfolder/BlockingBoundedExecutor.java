@@ -0,0 +1,111 @@
+package com.eoral.copyboxfolder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed size thread pool with a bounded task queue. When the queue is full, the submitting thread blocks until
+ * a worker takes a task, so producers can't get ahead of consumers by more than the queue capacity.
+ * Time spent by producers waiting for space and by workers waiting for tasks is recorded.
+ */
+public class BlockingBoundedExecutor extends ThreadPoolExecutor implements MonitoredExecutorService {
+
+    private final int queueCapacity;
+    private final LongAdder producerWaitNanos;
+    private final LongAdder consumerIdleNanos;
+
+    public BlockingBoundedExecutor(int numberOfThreads, int queueCapacity) {
+        this(numberOfThreads, queueCapacity, new LongAdder(), new LongAdder());
+    }
+
+    private BlockingBoundedExecutor(int numberOfThreads, int queueCapacity, LongAdder producerWaitNanos, LongAdder consumerIdleNanos) {
+        super(numberOfThreads, numberOfThreads, 0, TimeUnit.MILLISECONDS,
+                new IdleTimingQueue(queueCapacity, consumerIdleNanos), new BlockingPolicy(producerWaitNanos));
+        this.queueCapacity = queueCapacity;
+        this.producerWaitNanos = producerWaitNanos;
+        this.consumerIdleNanos = consumerIdleNanos;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    @Override
+    public int getActiveTasks() {
+        return getActiveCount();
+    }
+
+    public long getProducerWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(producerWaitNanos.sum());
+    }
+
+    /**
+     * Total over all workers, so it can be larger than the elapsed time.
+     */
+    public long getConsumerIdleMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(consumerIdleNanos.sum());
+    }
+
+    @Override
+    public String getStatsLine() {
+        return "queueDepth: " + getQueueDepth() + "/" + queueCapacity
+                + ", activeThreads: " + getActiveCount()
+                + ", completedTasks: " + getCompletedTaskCount()
+                + ", producerWaitMillis: " + getProducerWaitMillis()
+                + ", consumerIdleMillis: " + getConsumerIdleMillis();
+    }
+
+    private static class BlockingPolicy implements RejectedExecutionHandler {
+
+        private final LongAdder producerWaitNanos;
+
+        BlockingPolicy(LongAdder producerWaitNanos) {
+            this.producerWaitNanos = producerWaitNanos;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor is shut down.");
+            }
+            long startNanos = System.nanoTime();
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for space in the queue.", e);
+            } finally {
+                producerWaitNanos.add(System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    private static class IdleTimingQueue extends ArrayBlockingQueue<Runnable> {
+
+        private final LongAdder consumerIdleNanos;
+
+        IdleTimingQueue(int capacity, LongAdder consumerIdleNanos) {
+            super(capacity);
+            this.consumerIdleNanos = consumerIdleNanos;
+        }
+
+        @Override
+        public Runnable take() throws InterruptedException {
+            long startNanos = System.nanoTime();
+            try {
+                return super.take();
+            } finally {
+                consumerIdleNanos.add(System.nanoTime() - startNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.eoral.copyboxfolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed size ring buffer connecting one writer thread to one reader thread.
+ * Unlike PipedInputStream/PipedOutputStream, a failure on the writer side is propagated to the reader,
+ * so the reader can't mistake a broken download for the end of the file.
+ */
+public class BoundedPipe {
+
+    private final byte[] buffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int readPosition = 0;
+    private int count = 0;
+    private boolean writerClosed = false;
+    private boolean readerClosed = false;
+    private Throwable writerFailure = null;
+
+    private final InputStream inputStream = new PipeInputStream();
+    private final OutputStream outputStream = new PipeOutputStream();
+
+    public BoundedPipe(int bufferSize) {
+        this(new byte[bufferSize]);
+    }
+
+    /**
+     * Uses the given array as the ring buffer, e.g. one borrowed from a BufferPool.
+     * The array may be reused once the reader side is closed, the writer side never touches it after that.
+     */
+    public BoundedPipe(byte[] buffer) {
+        if (buffer.length == 0) {
+            throw new IllegalArgumentException("Buffer size should be greater than 0.");
+        }
+        this.buffer = buffer;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Marks the writer side as failed. Reader will get an IOException instead of end of stream.
+     */
+    public void fail(Throwable cause) {
+        lock.lock();
+        try {
+            writerFailure = cause;
+            writerClosed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private class PipeInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                while (count == 0) {
+                    if (readerClosed) {
+                        throw new IOException("Pipe closed.");
+                    }
+                    if (writerClosed) {
+                        if (writerFailure != null) {
+                            throw new IOException("Writer side of the pipe failed.", writerFailure);
+                        }
+                        return -1;
+                    }
+                    await(notEmpty);
+                }
+                int n = Math.min(len, count);
+                int firstPart = Math.min(n, buffer.length - readPosition);
+                System.arraycopy(buffer, readPosition, b, off, firstPart);
+                System.arraycopy(buffer, 0, b, off + firstPart, n - firstPart);
+                readPosition = (readPosition + n) % buffer.length;
+                count -= n;
+                notFull.signalAll();
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                readerClosed = true;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private class PipeOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                while (len > 0) {
+                    while (count == buffer.length && !readerClosed) {
+                        await(notFull);
+                    }
+                    if (readerClosed) {
+                        throw new IOException("Reader side of the pipe is closed.");
+                    }
+                    if (writerClosed) {
+                        throw new IOException("Pipe closed.");
+                    }
+                    int writePosition = (readPosition + count) % buffer.length;
+                    int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePosition));
+                    System.arraycopy(b, off, buffer, writePosition, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    notEmpty.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                writerClosed = true;
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static void await(Condition condition) throws InterruptedIOException {
+        try {
+            condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on pipe.");
+        }
+    }
+}
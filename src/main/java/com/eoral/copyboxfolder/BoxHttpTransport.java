@@ -0,0 +1,134 @@
+package com.eoral.copyboxfolder;
+
+import com.box.sdk.BoxConfig;
+import com.box.sdk.BoxDeveloperEditionAPIConnection;
+import com.box.sdk.DeveloperEditionEntityType;
+import com.box.sdk.IAccessTokenCache;
+import com.box.sdk.InMemoryLRUAccessTokenCache;
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Http connections and access tokens shared by the Box connections of a run.
+ * All connections use one bounded connection pool, so connections to the same Box hosts are kept alive and reused
+ * by every worker instead of each connection having its own pool.
+ * Access tokens are renewed on a background thread before they expire. The SDK renews an expiring token on the
+ * thread making a call, holding a lock which waits for all in-flight calls (uploads included) and blocks new ones
+ * until then. Here the new token is fetched without that lock and replaces the old one, which is still valid,
+ * so calls never wait for authentication.
+ */
+public class BoxHttpTransport {
+
+    /**
+     * The SDK renews a token in-band this long before it expires.
+     */
+    private static final long SDK_REFRESH_EPSILON_MILLIS = 60_000;
+    private static final long RETRY_DELAY_MILLIS = 30_000;
+
+    private final ConnectionPool connectionPool;
+    private final IAccessTokenCache accessTokenCache = new InMemoryLRUAccessTokenCache(10);
+    private final long refreshAheadMillis;
+    private final ScheduledExecutorService tokenRefresher;
+
+    /**
+     * @param maxIdleConnections Connections kept open while idle, for all connections and hosts together.
+     * @param refreshAheadInSeconds Tokens are renewed this long before they expire, should be more than 60 seconds.
+     */
+    public BoxHttpTransport(int maxIdleConnections, long keepAliveInSeconds, long refreshAheadInSeconds) {
+        if (refreshAheadInSeconds * 1000 <= SDK_REFRESH_EPSILON_MILLIS) {
+            throw new IllegalArgumentException("Tokens should be refreshed more than 60 seconds before they expire.");
+        }
+        this.connectionPool = new ConnectionPool(maxIdleConnections, keepAliveInSeconds, TimeUnit.SECONDS);
+        this.refreshAheadMillis = TimeUnit.SECONDS.toMillis(refreshAheadInSeconds);
+        this.tokenRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "box-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns an authenticated app enterprise connection using the shared pool, its token is renewed in the background.
+     */
+    public BoxDeveloperEditionAPIConnection createConnection(BoxConfig boxConfig) {
+        PooledConnection api = new PooledConnection(boxConfig, accessTokenCache, connectionPool);
+        api.authenticate();
+        scheduleRefresh(api);
+        return api;
+    }
+
+    private void scheduleRefresh(PooledConnection api) {
+        long delayMillis = api.getLastRefresh() + api.getExpires() - refreshAheadMillis - System.currentTimeMillis();
+        tokenRefresher.schedule(() -> refresh(api), Math.max(delayMillis, 0), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * If renewing fails, it is retried until the token is close to expiry. After that, the SDK renews it in-band.
+     */
+    private void refresh(PooledConnection api) {
+        try {
+            api.authenticate();
+            scheduleRefresh(api);
+        } catch (RuntimeException e) {
+            System.err.println("Access token couldn't be refreshed, retrying: " + e.getMessage());
+            tokenRefresher.schedule(() -> refresh(api), RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public String getStatsLine() {
+        return "connections: " + connectionPool.connectionCount() + ", idle: " + connectionPool.idleConnectionCount();
+    }
+
+    /**
+     * Stops renewing tokens and closes idle connections.
+     */
+    public void close() {
+        tokenRefresher.shutdownNow();
+        connectionPool.evictAll();
+    }
+
+    /**
+     * Throttled responses are counted here as they arrive, the SDK retries them without reporting.
+     */
+    static class PooledConnection extends BoxDeveloperEditionAPIConnection {
+
+        private final ConnectionPool connectionPool;
+        private volatile TransferMetrics.ConnectionMetrics responseMetrics = null;
+
+        PooledConnection(BoxConfig boxConfig, IAccessTokenCache accessTokenCache, ConnectionPool connectionPool) {
+            super(boxConfig.getEnterpriseId(), DeveloperEditionEntityType.ENTERPRISE, boxConfig, accessTokenCache);
+            this.connectionPool = connectionPool;
+            // Http clients are built by the super constructor, before the pool is set. Setting a timeout rebuilds them.
+            setConnectTimeout(getConnectTimeout());
+        }
+
+        @Override
+        protected OkHttpClient.Builder modifyHttpClientBuilder(OkHttpClient.Builder httpClientBuilder) {
+            if (connectionPool == null) {
+                return httpClientBuilder;
+            }
+            return httpClientBuilder.connectionPool(connectionPool).retryOnConnectionFailure(true)
+                    .addInterceptor(this::countThrottledResponse);
+        }
+
+        void setResponseMetrics(TransferMetrics.ConnectionMetrics responseMetrics) {
+            this.responseMetrics = responseMetrics;
+        }
+
+        private Response countThrottledResponse(Interceptor.Chain chain) throws IOException {
+            Response response = chain.proceed(chain.request());
+            TransferMetrics.ConnectionMetrics metrics = responseMetrics;
+            if (metrics != null && (response.code() == 429 || response.code() >= 500)) {
+                metrics.throttled(response.code());
+            }
+            return response;
+        }
+    }
+}
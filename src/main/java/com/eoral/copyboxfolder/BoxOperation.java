@@ -0,0 +1,23 @@
+package com.eoral.copyboxfolder;
+
+/**
+ * Kinds of Box api calls, metrics are collected separately for each of them.
+ */
+public enum BoxOperation {
+    LIST,
+    CREATE_FOLDER,
+    CAN_UPLOAD,
+    GET_INFO,
+    SEARCH,
+    DOWNLOAD,
+    /**
+     * Includes upload session calls and part uploads of large files.
+     */
+    UPLOAD,
+    COPY,
+    /**
+     * Moves and renames.
+     */
+    MOVE,
+    DELETE
+}
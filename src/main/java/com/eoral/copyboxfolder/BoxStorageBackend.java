@@ -0,0 +1,247 @@
+package com.eoral.copyboxfolder;
+
+import com.box.sdk.*;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+public class BoxStorageBackend implements StorageBackend {
+
+    private static final String[] ITEM_FIELDS = {"type", "id", "name", "size", "sha1", "etag", "modified_at"};
+
+    private final BoxAPIConnection api;
+
+    public BoxStorageBackend(BoxAPIConnection api) {
+        this.api = api;
+    }
+
+    /**
+     * The SDK's marker paging is only available as an iterator which requests pages itself, so the items endpoint is
+     * called directly to make one limited and retryable call per page.
+     */
+    @Override
+    public StoragePage listChildren(String folderId, String marker, int limit) {
+        String query = "usemarker=true&limit=" + limit + "&fields=" + String.join(",", ITEM_FIELDS)
+                + (marker == null ? "" : "&marker=" + URLEncoder.encode(marker, StandardCharsets.UTF_8));
+        URL url;
+        try {
+            url = new URL(api.getBaseURL() + "folders/" + folderId + "/items?" + query);
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+        try (BoxJSONResponse response = (BoxJSONResponse) new BoxAPIRequest(api, url, "GET").send()) {
+            JsonNode jsonNode = Utils.convertToJsonNode(response.getJSON());
+            List<StorageItem> items = new ArrayList<>();
+            for (JsonNode entry : jsonNode.get("entries")) {
+                String type = entry.get("type").textValue();
+                if (type.equals("file") || type.equals("folder")) {
+                    items.add(toStorageItem(entry));
+                }
+            }
+            JsonNode nextMarker = jsonNode.get("next_marker");
+            boolean lastPage = nextMarker == null || nextMarker.isNull() || nextMarker.textValue().isEmpty();
+            return new StoragePage(items, lastPage ? null : nextMarker.textValue());
+        }
+    }
+
+    @Override
+    public StorageItem getFolder(String folderId) {
+        return toStorageItem(new BoxFolder(api, folderId).getInfo(ITEM_FIELDS));
+    }
+
+    @Override
+    public StorageItem getFile(String fileId) {
+        return toStorageItem(new BoxFile(api, fileId).getInfo(ITEM_FIELDS));
+    }
+
+    @Override
+    public StorageItem createFolder(String parentFolderId, String name) {
+        return toStorageItem(new BoxFolder(api, parentFolderId).createFolder(name));
+    }
+
+    // Immediately after creating a folder/file, search method may not find it. I have seen this issue a few times.
+    // Probably, search method is using a cache in Box.
+    @Override
+    public StorageItem searchChild(String parentFolderId, BoxItemType type, String name) {
+        BoxSearch boxSearch = new BoxSearch(api);
+        BoxSearchParameters searchParams = new BoxSearchParameters();
+        searchParams.setType(type == BoxItemType.FILE ? "file" : "folder");
+        // Search results will also include items within any subfolders of those ancestor folders.
+        // So, we are checking direct parent-child relationship while iterating search results.
+        searchParams.setAncestorFolderIds(Arrays.asList(parentFolderId));
+        searchParams.setContentTypes(Arrays.asList("name"));
+        searchParams.setQuery("\"" + name + "\""); // We are using a quoted query to get exact matches only.
+        PartialCollection<BoxItem.Info> searchResults = boxSearch.searchRange(0, 100, searchParams);
+        // Why do we need a loop here? Please, read this: A search for "Blue-Box" may return search results including
+        // the sequence "blue.box", "Blue Box", and "Blue-Box"; any item containing the words Blue and Box consecutively, in the order specified.
+        // For more details, visit https://developer.box.com/reference/get-search/#param-query
+        List<BoxItem.Info> items = new ArrayList<>();
+        for (BoxItem.Info info : searchResults) {
+            if (info.getParent().getID().equals(parentFolderId) && info.getName().equals(name)) {
+                items.add(info);
+            }
+        }
+        if (items.size() == 0) {
+            return null;
+        } else if (items.size() == 1) {
+            return toStorageItem(items.get(0));
+        } else {
+            throw new RuntimeException("This shouldn't happen, there must be a bug in the code.");
+        }
+    }
+
+    @Override
+    public void canUpload(String parentFolderId, String name, long size) {
+        new BoxFolder(api, parentFolderId).canUpload(name, size);
+    }
+
+    @Override
+    public void download(String fileId, OutputStream outputStream) {
+        new BoxFile(api, fileId).download(outputStream);
+    }
+
+    @Override
+    public void downloadRange(String fileId, OutputStream outputStream, long rangeStart, long rangeEnd) {
+        new BoxFile(api, fileId).downloadRange(outputStream, rangeStart, rangeEnd);
+    }
+
+    @Override
+    public StorageItem uploadFile(String parentFolderId, String name, InputStream content, String sha1) {
+        // uploadFile(InputStream, String, String) takes a description, not a sha1. Sha1 is sent only with upload params.
+        FileUploadParams uploadParams = new FileUploadParams().setContent(content).setName(name);
+        if (sha1 != null) {
+            uploadParams.setSHA1(sha1);
+        }
+        return toStorageItem(new BoxFolder(api, parentFolderId).uploadFile(uploadParams));
+    }
+
+    @Override
+    public StorageItem uploadNewVersion(String fileId, InputStream content, String sha1) {
+        BoxFile file = new BoxFile(api, fileId);
+        return toStorageItem(sha1 == null ? file.uploadNewVersion(content) : file.uploadNewVersion(content, sha1));
+    }
+
+    @Override
+    public StorageUploadSession createUploadSession(String parentFolderId, String name, long fileSize) {
+        return new BoxUploadSession(new BoxFolder(api, parentFolderId).createUploadSession(name, fileSize));
+    }
+
+    @Override
+    public StorageUploadSession createNewVersionUploadSession(String fileId, long fileSize) {
+        return new BoxUploadSession(new BoxFile(api, fileId).createUploadSession(fileSize));
+    }
+
+    @Override
+    public void deleteFile(String fileId) {
+        new BoxFile(api, fileId).delete();
+    }
+
+    @Override
+    public StorageItem copyFile(String fileId, String targetFolderId, String newName) {
+        return toStorageItem(new BoxFile(api, fileId).copy(new BoxFolder(api, targetFolderId), newName));
+    }
+
+    @Override
+    public StorageItem copyFolder(String folderId, String targetParentFolderId) {
+        return toStorageItem(new BoxFolder(api, folderId).copy(new BoxFolder(api, targetParentFolderId)));
+    }
+
+    @Override
+    public StorageItem moveFile(String fileId, String targetFolderId, String newName) {
+        return toStorageItem(new BoxFile(api, fileId).move(new BoxFolder(api, targetFolderId), newName));
+    }
+
+    @Override
+    public StorageItem moveFolder(String folderId, String targetParentFolderId, String newName) {
+        return toStorageItem(new BoxFolder(api, folderId).move(new BoxFolder(api, targetParentFolderId), newName));
+    }
+
+    @Override
+    public void disableClientRetries() {
+        api.setMaxRetryAttempts(0);
+    }
+
+    /**
+     * Possible only for connections of a BoxHttpTransport, which can observe each http response.
+     */
+    @Override
+    public void countThrottledResponses(TransferMetrics.ConnectionMetrics metrics) {
+        if (api instanceof BoxHttpTransport.PooledConnection) {
+            ((BoxHttpTransport.PooledConnection) api).setResponseMetrics(metrics);
+            metrics.countedByClient();
+        }
+    }
+
+    /**
+     * Same as converting an item info, for an entry of a listing response.
+     */
+    private static StorageItem toStorageItem(JsonNode entry) {
+        BoxItemType type = entry.get("type").textValue().equals("file") ? BoxItemType.FILE : BoxItemType.FOLDER;
+        JsonNode modifiedAt = entry.get("modified_at");
+        return new StorageItem(type, entry.get("id").textValue(), entry.get("name").textValue(), entry.path("size").longValue(),
+                getTextOrNull(entry, "sha1"), getTextOrNull(entry, "etag"),
+                modifiedAt == null || modifiedAt.isNull() ? null : OffsetDateTime.parse(modifiedAt.textValue()).toInstant().toString());
+    }
+
+    private static String getTextOrNull(JsonNode jsonNode, String fieldName) {
+        JsonNode field = jsonNode.get(fieldName);
+        return field == null || field.isNull() ? null : field.textValue();
+    }
+
+    private static StorageItem toStorageItem(BoxItem.Info itemInfo) {
+        String modifiedAt = itemInfo.getModifiedAt() == null ? null : itemInfo.getModifiedAt().toInstant().toString();
+        if (itemInfo instanceof BoxFile.Info) {
+            return new StorageItem(BoxItemType.FILE, itemInfo.getID(), itemInfo.getName(), itemInfo.getSize(),
+                    ((BoxFile.Info) itemInfo).getSha1(), itemInfo.getEtag(), modifiedAt);
+        } else {
+            return new StorageItem(BoxItemType.FOLDER, itemInfo.getID(), itemInfo.getName(), itemInfo.getSize(),
+                    null, itemInfo.getEtag(), modifiedAt);
+        }
+    }
+
+    /**
+     * Keeps the uploaded parts by offset, commit needs all of them.
+     */
+    private static class BoxUploadSession implements StorageUploadSession {
+
+        private final BoxFileUploadSession session;
+        private final int partSize;
+        private final Map<Long, BoxFileUploadSessionPart> parts = new ConcurrentSkipListMap<>();
+
+        BoxUploadSession(BoxFileUploadSession.Info sessionInfo) {
+            this.session = sessionInfo.getResource();
+            this.partSize = sessionInfo.getPartSize();
+        }
+
+        @Override
+        public int getPartSize() {
+            return partSize;
+        }
+
+        @Override
+        public void uploadPart(InputStream content, long offset, int partSize, long fileSize) {
+            parts.put(offset, session.uploadPart(content, offset, partSize, fileSize));
+        }
+
+        @Override
+        public StorageItem commit(String digestBase64) {
+            return toStorageItem(session.commit(digestBase64, new ArrayList<>(parts.values()), null, null, null));
+        }
+
+        @Override
+        public void abort() {
+            session.abort();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.eoral.copyboxfolder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reusable byte arrays of a single size. Transfers borrow arrays instead of allocating new ones,
+ * so buffers live long and don't churn the young generation.
+ * The pool keeps at most maxPooledBuffers arrays, others are left to the garbage collector when returned.
+ * The pool doesn't limit how many arrays are borrowed, that is the job of MemoryBudget.
+ */
+public class BufferPool {
+
+    private final int bufferSizeInBytes;
+    private final BlockingQueue<byte[]> pooledBuffers;
+
+    public BufferPool(int bufferSizeInBytes, int maxPooledBuffers) {
+        this.bufferSizeInBytes = bufferSizeInBytes;
+        this.pooledBuffers = new ArrayBlockingQueue<>(Math.max(1, maxPooledBuffers));
+    }
+
+    public int getBufferSizeInBytes() {
+        return bufferSizeInBytes;
+    }
+
+    public byte[] acquire() {
+        byte[] buffer = pooledBuffers.poll();
+        return buffer != null ? buffer : new byte[bufferSizeInBytes];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer.length == bufferSizeInBytes) {
+            pooledBuffers.offer(buffer);
+        }
+    }
+}
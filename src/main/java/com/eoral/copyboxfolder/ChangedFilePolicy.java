@@ -0,0 +1,20 @@
+package com.eoral.copyboxfolder;
+
+/**
+ * What to do when a file with the same name exists in the target but its sha1 is different from the source.
+ */
+public enum ChangedFilePolicy {
+    /**
+     * Target file is left as it is and mapped to the source file.
+     */
+    KEEP_EXISTING,
+    /**
+     * Source content is uploaded as a new version of the target file, its id and version history are kept.
+     */
+    UPLOAD_NEW_VERSION,
+    /**
+     * Source file is uploaded with a new id under a temporary name, then the target file is deleted (moved to trash)
+     * and the upload is renamed.
+     */
+    REPLACE
+}
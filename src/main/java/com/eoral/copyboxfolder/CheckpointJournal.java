@@ -0,0 +1,143 @@
+package com.eoral.copyboxfolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only file recording each mapping as soon as the item is copied, one json object per line.
+ * When the application is killed, the journal tells which items are already copied.
+ * The first line is a header with the source and target folder ids, so a journal is never used for other folders.
+ * Writes are guarded by a lock rather than a monitor, so a virtual thread flushing the journal doesn't pin its carrier thread.
+ */
+public class CheckpointJournal implements Closeable {
+
+    private final BufferedWriter writer;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param append If false, the journal is truncated and a fresh run starts. An existing journal should be
+     *               checked with {@link #load} before it is appended to.
+     */
+    public CheckpointJournal(Path filePath, boolean append, String sourceFolderId, String targetFolderId) {
+        try {
+            boolean writeHeader = !append || !Files.exists(filePath) || Files.size(filePath) == 0;
+            writer = Files.newBufferedWriter(filePath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+            if (writeHeader) {
+                writer.write(Utils.convertToJsonString(createHeader(sourceFolderId, targetFolderId)));
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the mapping and flushes it to the operating system, so it survives a crash of the application.
+     */
+    public void record(BoxItemMapping boxItemMapping) {
+        String line = Utils.convertToJsonString(boxItemMapping);
+        lock.lock();
+        try {
+            writer.write(line);
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Loads the journal into an index keyed by source id. Returns an empty index if the journal doesn't exist or is empty.
+     * The last line may be incomplete if the application was killed while writing it, such a line is ignored.
+     * Throws IllegalStateException if the journal is written for other folders, or by a version without a header.
+     */
+    public static Map<String, BoxItemMapping> load(Path filePath, String sourceFolderId, String targetFolderId) {
+        Map<String, BoxItemMapping> index = new HashMap<>();
+        if (!Files.exists(filePath)) {
+            return index;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                return index;
+            }
+            if (!isHeaderOf(headerLine, sourceFolderId, targetFolderId)) {
+                throw new IllegalStateException("Journal is not written for sourceFolderId " + sourceFolderId
+                        + " and targetFolderId " + targetFolderId + ", delete it or set resume to false: " + filePath.toAbsolutePath());
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                BoxItemMapping boxItemMapping = parseLine(line);
+                if (boxItemMapping != null) {
+                    index.put(boxItemMapping.getSourceId(), boxItemMapping);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return index;
+    }
+
+    private static Map<String, String> createHeader(String sourceFolderId, String targetFolderId) {
+        Map<String, String> header = new LinkedHashMap<>();
+        header.put("sourceFolderId", sourceFolderId);
+        header.put("targetFolderId", targetFolderId);
+        return header;
+    }
+
+    private static boolean isHeaderOf(String line, String sourceFolderId, String targetFolderId) {
+        try {
+            JsonNode header = Utils.convertToJsonNode(line);
+            return header.has("sourceFolderId") && header.has("targetFolderId")
+                    && sourceFolderId.equals(header.get("sourceFolderId").textValue())
+                    && targetFolderId.equals(header.get("targetFolderId").textValue());
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static BoxItemMapping parseLine(String line) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            JsonNode jsonNode = Utils.convertToJsonNode(line);
+            return new BoxItemMapping(
+                    BoxItemType.valueOf(jsonNode.get("type").textValue()),
+                    jsonNode.get("sourceId").textValue(),
+                    jsonNode.get("targetId").textValue());
+        } catch (RuntimeException e) {
+            System.err.println("Ignoring unreadable journal line: " + line);
+            return null;
+        }
+    }
+}
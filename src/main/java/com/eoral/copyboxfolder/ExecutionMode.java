@@ -0,0 +1,13 @@
+package com.eoral.copyboxfolder;
+
+public enum ExecutionMode {
+    /**
+     * Files are copied by a fixed number of platform threads fed by a bounded queue.
+     */
+    PLATFORM_THREADS,
+    /**
+     * Each file is copied on its own virtual thread, the number of copies in flight is limited by a semaphore.
+     * Requires Java 21 or later at runtime.
+     */
+    VIRTUAL_THREADS
+}
@@ -0,0 +1,59 @@
+package com.eoral.copyboxfolder;
+
+import java.io.InputStream;
+
+/**
+ * Where uploaded content goes: either a new file in a folder, or a new version of an existing file.
+ */
+public class FileUploadTarget {
+
+    private final String folderId;
+    private final String fileName;
+    private final String existingFileId;
+
+    private FileUploadTarget(String folderId, String fileName, String existingFileId) {
+        this.folderId = folderId;
+        this.fileName = fileName;
+        this.existingFileId = existingFileId;
+    }
+
+    public static FileUploadTarget newFile(String folderId, String fileName) {
+        return new FileUploadTarget(folderId, fileName, null);
+    }
+
+    public static FileUploadTarget newVersion(String folderId, String fileName, String existingFileId) {
+        return new FileUploadTarget(folderId, fileName, existingFileId);
+    }
+
+    public String getFolderId() {
+        return folderId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public boolean isNewVersion() {
+        return existingFileId != null;
+    }
+
+    /**
+     * @param sha1 Expected sha1 of the content in hex, or null if it is not known.
+     *             If given, the storage rejects the upload when the received content has a different sha1.
+     */
+    public StorageItem upload(StorageBackend storage, InputStream content, String sha1) {
+        if (isNewVersion()) {
+            return storage.uploadNewVersion(existingFileId, content, sha1);
+        } else {
+            return storage.uploadFile(folderId, fileName, content, sha1);
+        }
+    }
+
+    public StorageUploadSession createUploadSession(StorageBackend storage, long fileSize) {
+        if (isNewVersion()) {
+            return storage.createNewVersionUploadSession(existingFileId, fileSize);
+        } else {
+            return storage.createUploadSession(folderId, fileName, fileSize);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.eoral.copyboxfolder;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Lists folders of one storage with marker paging. When a page arrives, the next page is requested right away on the
+ * prefetch executor, so it is on its way while the items of the current page are handled. At most one page is fetched
+ * ahead per listing, memory stays bounded however large the folder is.
+ */
+public class FolderLister {
+
+    private final StorageBackend storage;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ExecutorService prefetchExecutor;
+    private final int pageSize;
+
+    /**
+     * @param prefetchExecutor Runs only page requests, it doesn't need more threads than the number of listings running at the same time.
+     */
+    public FolderLister(StorageBackend storage, AdaptiveConcurrencyLimiter limiter, ExecutorService prefetchExecutor, int pageSize) {
+        this.storage = storage;
+        this.limiter = limiter;
+        this.prefetchExecutor = prefetchExecutor;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the children of the folder as they are listed. The first page is requested when the listing is first used.
+     * It should be closed if it is not read to the end.
+     */
+    public Listing list(String folderId) {
+        return new Listing(folderId);
+    }
+
+    private StoragePage fetchPage(String folderId, String marker) {
+        return limiter.execute(BoxOperation.LIST, true, () -> storage.listChildren(folderId, marker, pageSize));
+    }
+
+    public class Listing implements Iterator<StorageItem>, Iterable<StorageItem>, AutoCloseable {
+
+        private final String folderId;
+        private Iterator<StorageItem> currentPageItems = Collections.emptyIterator();
+        private boolean started = false;
+        private Future<StoragePage> nextPage = null;
+
+        private Listing(String folderId) {
+            this.folderId = folderId;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!currentPageItems.hasNext()) {
+                StoragePage page;
+                if (!started) {
+                    started = true;
+                    page = fetchPage(folderId, null);
+                } else if (nextPage != null) {
+                    page = waitForNextPage();
+                } else {
+                    return false;
+                }
+                String nextMarker = page.getNextMarker();
+                nextPage = nextMarker == null ? null : prefetchExecutor.submit(() -> fetchPage(folderId, nextMarker));
+                currentPageItems = page.getItems().iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public StorageItem next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentPageItems.next();
+        }
+
+        /**
+         * Can be iterated only once.
+         */
+        @Override
+        public Iterator<StorageItem> iterator() {
+            return this;
+        }
+
+        private StoragePage waitForNextPage() {
+            try {
+                StoragePage page = nextPage.get();
+                nextPage = null;
+                return page;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                // Same exception as a page requested on the calling thread, so callers can handle e.g. a 404 the same way.
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException("Folder couldn't be listed - folderId: " + folderId, e.getCause());
+            }
+        }
+
+        /**
+         * Cancels the page being prefetched, if any.
+         */
+        @Override
+        public void close() {
+            if (nextPage != null) {
+                nextPage.cancel(true);
+                nextPage = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.eoral.copyboxfolder;
+
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Copies a large file using a chunked upload session.
+ * Each part is downloaded from the source with a byte range request and uploaded to the session on its own,
+ * several parts of the same file are in flight at the same time. A failed part is retried alone.
+ * Throttled part downloads are retried by this class, since the part buffer has to be rewritten from the beginning.
+ */
+public class LargeFileTransfer {
+
+    /**
+     * Box doesn't accept upload sessions for smaller files.
+     */
+    public static final long MIN_FILE_SIZE_IN_BYTES = 20000000;
+
+    private final ExecutorService partExecutor;
+    private final int partConcurrency;
+    private final int partMaxAttempts;
+    private final AdaptiveConcurrencyLimiter sourceLimiter;
+    private final AdaptiveConcurrencyLimiter targetLimiter;
+    private final MemoryBudget memoryBudget;
+    private final BufferPool bufferPool;
+    private final TransferMetrics metrics;
+
+    /**
+     * @param partExecutor Executor running part transfers. Parts are submitted in order, so it should be a FIFO executor.
+     * @param partConcurrency Maximum number of parts of a single file in flight at the same time.
+     * @param partMaxAttempts Maximum number of attempts for downloading or uploading a single part.
+     * @param memoryBudget Each part reserves its size from the budget before it is buffered.
+     * @param bufferPool Part content is kept in chunks borrowed from this pool.
+     * @param metrics Transferred bytes and part retries are counted here.
+     */
+    public LargeFileTransfer(ExecutorService partExecutor, int partConcurrency, int partMaxAttempts,
+                             AdaptiveConcurrencyLimiter sourceLimiter, AdaptiveConcurrencyLimiter targetLimiter,
+                             MemoryBudget memoryBudget, BufferPool bufferPool, TransferMetrics metrics) {
+        this.partExecutor = partExecutor;
+        this.partConcurrency = partConcurrency;
+        this.partMaxAttempts = partMaxAttempts;
+        this.sourceLimiter = sourceLimiter;
+        this.targetLimiter = targetLimiter;
+        this.memoryBudget = memoryBudget;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param expectedSha1 Sha1 of the source file in hex, or null if it is not known. The session is aborted instead of
+     *                     committed if the downloaded parts don't add up to it.
+     */
+    public StorageItem transfer(
+            StorageBackend sourceStorage, String sourceFileId, long fileSize, String expectedSha1,
+            StorageBackend targetStorage, FileUploadTarget uploadTarget) {
+        StorageUploadSession session = targetLimiter.execute(BoxOperation.UPLOAD, true,
+                () -> uploadTarget.createUploadSession(targetStorage, fileSize));
+        try {
+            return transferParts(sourceStorage, sourceFileId, session, session.getPartSize(), fileSize, expectedSha1);
+        } catch (RuntimeException e) {
+            abortQuietly(session);
+            throw e;
+        }
+    }
+
+    private StorageItem transferParts(
+            StorageBackend sourceStorage, String sourceFileId, StorageUploadSession session, int partSize, long fileSize, String expectedSha1) {
+        int numberOfParts = (int) ((fileSize + partSize - 1) / partSize);
+        MessageDigest digest = Utils.createSha1Digest();
+        DigestSequencer sequencer = new DigestSequencer();
+        Semaphore partPermits = new Semaphore(partConcurrency);
+        List<Future<?>> futures = new ArrayList<>(numberOfParts);
+        try {
+            for (int i = 0; i < numberOfParts; i++) {
+                partPermits.acquire();
+                if (sequencer.isFailed()) {
+                    partPermits.release();
+                    break;
+                }
+                // Memory is reserved here in part order. If parts reserved it themselves, a later part waiting for
+                // its digest turn could hold the memory an earlier part is waiting for.
+                long reservedBytes = memoryBudget.reserve(partSize);
+                int partIndex = i;
+                futures.add(partExecutor.submit(() -> {
+                    try {
+                        transferPart(sourceStorage, sourceFileId, session, partIndex, partSize, fileSize, digest, sequencer);
+                        return null;
+                    } catch (Throwable t) {
+                        sequencer.fail(t);
+                        throw t;
+                    } finally {
+                        memoryBudget.release(reservedBytes);
+                        partPermits.release();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            byte[] fileDigest = digest.digest();
+            String actualSha1 = Utils.toHex(fileDigest);
+            if (expectedSha1 != null && !expectedSha1.equalsIgnoreCase(actualSha1)) {
+                throw new RuntimeException("Downloaded parts don't match the sha1 of the source file - expected: "
+                        + expectedSha1 + ", actual: " + actualSha1);
+            }
+            String digestBase64 = Base64.getEncoder().encodeToString(fileDigest);
+            return targetLimiter.execute(BoxOperation.UPLOAD, true, () -> session.commit(digestBase64));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Part transfer failed.", e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void transferPart(
+            StorageBackend sourceStorage, String sourceFileId, StorageUploadSession session, int partIndex, int partSize, long fileSize,
+            MessageDigest digest, DigestSequencer sequencer) throws InterruptedException {
+        long offset = (long) partIndex * partSize;
+        int length = (int) Math.min(partSize, fileSize - offset);
+        PooledBuffer buffer = new PooledBuffer(bufferPool);
+        try {
+            downloadPart(sourceStorage, sourceFileId, offset, length, buffer);
+            // Whole file digest is needed for commit, parts must be added to it in order.
+            sequencer.awaitTurn(partIndex);
+            buffer.updateDigest(digest);
+            sequencer.advance();
+            uploadPart(session, buffer, offset, length, fileSize);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private void downloadPart(StorageBackend sourceStorage, String sourceFileId, long offset, int length, PooledBuffer buffer) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                buffer.reset();
+                OutputStream outputStream = new CountingOutputStream(
+                        buffer.newOutputStream(), metrics.getDownloadedBytesCounter());
+                sourceLimiter.execute(BoxOperation.DOWNLOAD, false, () -> sourceStorage.downloadRange(sourceFileId, outputStream, offset, offset + length - 1));
+                if (buffer.size() != length) {
+                    throw new RuntimeException("Part download is incomplete - offset: " + offset
+                            + ", expected: " + length + ", received: " + buffer.size());
+                }
+                return;
+            } catch (RuntimeException e) {
+                waitBeforeRetryOrRethrow(attempt, e, "download", offset);
+            }
+        }
+    }
+
+    private void uploadPart(StorageUploadSession session, PooledBuffer buffer, long offset, int length, long fileSize)
+            throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                targetLimiter.execute(BoxOperation.UPLOAD, true, () -> session.uploadPart(
+                        new CountingInputStream(buffer.newInputStream(), metrics.getUploadedBytesCounter()), offset, length, fileSize));
+                return;
+            } catch (RuntimeException e) {
+                waitBeforeRetryOrRethrow(attempt, e, "upload", offset);
+            }
+        }
+    }
+
+    private void waitBeforeRetryOrRethrow(int attempt, RuntimeException e, String operation, long offset)
+            throws InterruptedException {
+        if (attempt >= partMaxAttempts) {
+            throw e;
+        }
+        metrics.transferRetried();
+        System.err.println("Part " + operation + " failed, retrying - offset: " + offset + ", attempt: " + attempt
+                + ", error: " + e.getMessage());
+        Thread.sleep(1000L * attempt);
+    }
+
+    private void abortQuietly(StorageUploadSession session) {
+        try {
+            targetLimiter.execute(BoxOperation.UPLOAD, false, session::abort);
+        } catch (RuntimeException e) {
+            System.err.println("Upload session could not be aborted: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lets parts update the shared digest one by one in part order.
+     * Parts may run on virtual threads, so they wait on a lock condition rather than a monitor, which would pin the carrier thread.
+     */
+    private static class DigestSequencer {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition turnChanged = lock.newCondition();
+        private int nextPartIndex = 0;
+        private Throwable failure = null;
+
+        void awaitTurn(int partIndex) throws InterruptedException {
+            lock.lock();
+            try {
+                while (nextPartIndex != partIndex) {
+                    if (failure != null) {
+                        throw new RuntimeException("Another part of the file failed.", failure);
+                    }
+                    turnChanged.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void advance() {
+            lock.lock();
+            try {
+                nextPartIndex++;
+                turnChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void fail(Throwable t) {
+            lock.lock();
+            try {
+                if (failure == null) {
+                    failure = t;
+                }
+                turnChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isFailed() {
+            lock.lock();
+            try {
+                return failure != null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.eoral.copyboxfolder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in fixed buckets. Each bucket is a LongAdder, so threads recording at the same time don't contend.
+ */
+public class LatencyHistogram {
+
+    private static final long[] BUCKET_UPPER_BOUNDS_MILLIS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 300000};
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_UPPER_BOUNDS_MILLIS.length + 1]; // Last one has no upper bound.
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int i = 0;
+        while (i < BUCKET_UPPER_BOUNDS_MILLIS.length && millis > BUCKET_UPPER_BOUNDS_MILLIS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    public static long[] getBucketUpperBoundsMillis() {
+        return BUCKET_UPPER_BOUNDS_MILLIS.clone();
+    }
+
+    /**
+     * Number of recorded latencies less than or equal to each upper bound, followed by the total count.
+     * Buckets are read one by one while others may be recording, so the result is approximate during a run.
+     */
+    public long[] getCumulativeCounts() {
+        long[] cumulativeCounts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            cumulativeCounts[i] = total;
+        }
+        return cumulativeCounts;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+
+    /**
+     * Upper bound of the bucket containing the given percentile (0-100), or -1 if it is above the last bound or nothing is recorded.
+     */
+    public long getPercentileUpperBoundMillis(double percentile) {
+        long[] cumulativeCounts = getCumulativeCounts();
+        long total = cumulativeCounts[cumulativeCounts.length - 1];
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        for (int i = 0; i < BUCKET_UPPER_BOUNDS_MILLIS.length; i++) {
+            if (cumulativeCounts[i] >= rank) {
+                return BUCKET_UPPER_BOUNDS_MILLIS[i];
+            }
+        }
+        return -1;
+    }
+}
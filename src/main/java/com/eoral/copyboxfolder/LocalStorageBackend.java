@@ -0,0 +1,613 @@
+package com.eoral.copyboxfolder;
+
+import com.box.sdk.BoxAPIException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Storage backend on a local directory, close enough to Box to run the copier without a Box account.
+ * Item ids are paths relative to the root directory, e.g. "source/photos/a.jpg". If source and target folders are
+ * under the same root, server side copy works between them too.
+ * Every call waits for the simulated latency, content is transferred at the simulated bandwidth, and calls above the
+ * simulated rate limit fail with 429 and Retry-After. Name conflicts fail with 409 item_name_in_use, like Box.
+ * Uploads are written to hidden staging files first and moved into place when complete, so several processes
+ * can share the same root directory.
+ */
+public class LocalStorageBackend implements StorageBackend {
+
+    private static final int PART_SIZE = 8 * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final String STAGING_PREFIX = ".copy-box-folder-staging-";
+
+    private final Path rootDirectory;
+    private final LocalStorageSimulation simulation;
+    private final Map<Path, CachedSha1> sha1Cache = new ConcurrentHashMap<>();
+    private long rateLimitWindowStartMillis = 0;
+    private int callsInRateLimitWindow = 0;
+
+    public LocalStorageBackend(Path rootDirectory, LocalStorageSimulation simulation) {
+        this.rootDirectory = rootDirectory.toAbsolutePath().normalize();
+        this.simulation = simulation;
+    }
+
+    /**
+     * Children are sorted by name and the marker is the name of the last child returned, so items created or deleted
+     * between pages don't shift the following pages.
+     */
+    @Override
+    public StoragePage listChildren(String folderId, String marker, int limit) {
+        startCall();
+        Path folder = resolveFolder(folderId);
+        List<Path> children;
+        try (Stream<Path> stream = Files.list(folder)) {
+            children = stream
+                    .filter(path -> !path.getFileName().toString().startsWith(STAGING_PREFIX))
+                    .filter(path -> marker == null || path.getFileName().toString().compareTo(marker) > 0)
+                    .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                    .limit(limit + 1)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        boolean lastPage = children.size() <= limit;
+        List<Path> pageChildren = lastPage ? children : children.subList(0, limit);
+        List<StorageItem> items = new ArrayList<>();
+        for (Path child : pageChildren) {
+            if (Files.isDirectory(child) || Files.isRegularFile(child)) {
+                items.add(toStorageItem(child));
+            }
+        }
+        String nextMarker = lastPage ? null : pageChildren.get(pageChildren.size() - 1).getFileName().toString();
+        return new StoragePage(items, nextMarker);
+    }
+
+    @Override
+    public StorageItem getFolder(String folderId) {
+        startCall();
+        return toStorageItem(resolveFolder(folderId));
+    }
+
+    @Override
+    public StorageItem getFile(String fileId) {
+        startCall();
+        return toStorageItem(resolveFile(fileId));
+    }
+
+    @Override
+    public StorageItem createFolder(String parentFolderId, String name) {
+        startCall();
+        Path folder = resolveFolder(parentFolderId).resolve(validateName(name));
+        try {
+            Files.createDirectory(folder);
+        } catch (FileAlreadyExistsException e) {
+            throw nameInUse(folder, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return toStorageItem(folder);
+    }
+
+    /**
+     * Unlike Box search, finds items created a moment ago too.
+     */
+    @Override
+    public StorageItem searchChild(String parentFolderId, BoxItemType type, String name) {
+        startCall();
+        Path child = resolveFolder(parentFolderId).resolve(validateName(name));
+        boolean found = type == BoxItemType.FILE ? Files.isRegularFile(child) : Files.isDirectory(child);
+        return found ? toStorageItem(child) : null;
+    }
+
+    @Override
+    public void canUpload(String parentFolderId, String name, long size) {
+        startCall();
+        Path file = resolveFolder(parentFolderId).resolve(validateName(name));
+        if (Files.exists(file)) {
+            throw nameInUse(file, false);
+        }
+    }
+
+    @Override
+    public void download(String fileId, OutputStream outputStream) {
+        startCall();
+        Path file = resolveFile(fileId);
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            transfer(inputStream, outputStream, Long.MAX_VALUE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void downloadRange(String fileId, OutputStream outputStream, long rangeStart, long rangeEnd) {
+        startCall();
+        Path file = resolveFile(fileId);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.position(rangeStart);
+            transfer(Channels.newInputStream(channel), outputStream, rangeEnd - rangeStart + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public StorageItem uploadFile(String parentFolderId, String name, InputStream content, String sha1) {
+        startCall();
+        Path file = resolveFolder(parentFolderId).resolve(validateName(name));
+        if (Files.exists(file)) {
+            throw nameInUse(file, false);
+        }
+        Path stagingFile = stage(file.getParent(), content, sha1);
+        placeNewFile(stagingFile, file);
+        return toStorageItem(file);
+    }
+
+    @Override
+    public StorageItem uploadNewVersion(String fileId, InputStream content, String sha1) {
+        startCall();
+        Path file = resolveFile(fileId);
+        Path stagingFile = stage(file.getParent(), content, sha1);
+        replaceFile(stagingFile, file);
+        return toStorageItem(file);
+    }
+
+    @Override
+    public StorageUploadSession createUploadSession(String parentFolderId, String name, long fileSize) {
+        startCall();
+        Path file = resolveFolder(parentFolderId).resolve(validateName(name));
+        if (Files.exists(file)) {
+            throw nameInUse(file, false);
+        }
+        return new LocalUploadSession(file, false);
+    }
+
+    @Override
+    public StorageUploadSession createNewVersionUploadSession(String fileId, long fileSize) {
+        startCall();
+        return new LocalUploadSession(resolveFile(fileId), true);
+    }
+
+    @Override
+    public void deleteFile(String fileId) {
+        startCall();
+        Path file = resolveFile(fileId);
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        sha1Cache.remove(file);
+    }
+
+    @Override
+    public StorageItem copyFile(String fileId, String targetFolderId, String newName) {
+        startCall();
+        Path sourceFile = resolveFile(fileId);
+        Path file = resolveFolder(targetFolderId).resolve(validateName(newName));
+        if (Files.exists(file)) {
+            throw nameInUse(file, false);
+        }
+        try {
+            Path stagingFile = Files.createTempFile(file.getParent(), STAGING_PREFIX, ".tmp");
+            Files.copy(sourceFile, stagingFile, StandardCopyOption.REPLACE_EXISTING);
+            placeNewFile(stagingFile, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return toStorageItem(file);
+    }
+
+    @Override
+    public StorageItem copyFolder(String folderId, String targetParentFolderId) {
+        startCall();
+        Path sourceFolder = resolveFolder(folderId);
+        Path folder = resolveFolder(targetParentFolderId).resolve(sourceFolder.getFileName());
+        if (Files.exists(folder)) {
+            throw nameInUse(folder, true);
+        }
+        try {
+            Path stagingFolder = Files.createTempDirectory(folder.getParent(), STAGING_PREFIX);
+            try (Stream<Path> stream = Files.walk(sourceFolder)) {
+                for (Path source : (Iterable<Path>) stream::iterator) {
+                    Path copy = stagingFolder.resolve(sourceFolder.relativize(source).toString());
+                    if (Files.isDirectory(source)) {
+                        Files.createDirectories(copy);
+                    } else {
+                        Files.copy(source, copy);
+                    }
+                }
+            }
+            Files.move(stagingFolder, folder);
+        } catch (FileAlreadyExistsException e) {
+            throw nameInUse(folder, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return toStorageItem(folder);
+    }
+
+    /**
+     * Ids are paths here, so the moved file gets a new id.
+     */
+    @Override
+    public StorageItem moveFile(String fileId, String targetFolderId, String newName) {
+        startCall();
+        return toStorageItem(move(resolveFile(fileId), resolveFolder(targetFolderId).resolve(validateName(newName)), false));
+    }
+
+    /**
+     * Ids of the items in the folder change too, since they are paths.
+     */
+    @Override
+    public StorageItem moveFolder(String folderId, String targetParentFolderId, String newName) {
+        startCall();
+        return toStorageItem(move(resolveFolder(folderId), resolveFolder(targetParentFolderId).resolve(validateName(newName)), true));
+    }
+
+    private Path move(Path source, Path target, boolean folder) {
+        if (target.startsWith(source) && !target.equals(source)) {
+            throw error(400, "bad_request", "A folder can't be moved into itself: " + toId(source));
+        }
+        try {
+            // Without ATOMIC_MOVE, an existing target fails the move instead of being replaced.
+            Files.move(source, target);
+        } catch (FileAlreadyExistsException e) {
+            throw nameInUse(target, folder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return target;
+    }
+
+    private void startCall() {
+        int maxCallsPerSecond = simulation.getMaxRequestsPerSecond();
+        if (maxCallsPerSecond > 0) {
+            long retryAfterMillis = 0;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (now - rateLimitWindowStartMillis >= 1000) {
+                    rateLimitWindowStartMillis = now;
+                    callsInRateLimitWindow = 0;
+                }
+                if (++callsInRateLimitWindow > maxCallsPerSecond) {
+                    retryAfterMillis = rateLimitWindowStartMillis + 1000 - now;
+                }
+            }
+            if (retryAfterMillis > 0) {
+                throw rateLimitExceeded((retryAfterMillis + 999) / 1000);
+            }
+        }
+        if (simulation.getLatencyMillis() > 0) {
+            sleep(simulation.getLatencyMillis());
+        }
+    }
+
+    /**
+     * Copies at most maxBytes at the simulated bandwidth.
+     */
+    private long transfer(InputStream inputStream, OutputStream outputStream, long maxBytes) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long bandwidth = simulation.getBandwidthBytesPerSecond();
+        long startNanos = System.nanoTime();
+        long transferred = 0;
+        while (transferred < maxBytes) {
+            int n = inputStream.read(buffer, 0, (int) Math.min(buffer.length, maxBytes - transferred));
+            if (n < 0) {
+                break;
+            }
+            outputStream.write(buffer, 0, n);
+            transferred += n;
+            if (bandwidth > 0) {
+                long aheadNanos = transferred * 1_000_000_000L / bandwidth - (System.nanoTime() - startNanos);
+                if (aheadNanos > 1_000_000) {
+                    sleep(aheadNanos / 1_000_000);
+                }
+            }
+        }
+        return transferred;
+    }
+
+    /**
+     * Writes the content to a staging file next to its final place, and checks the sha1 like Box does for Content-MD5.
+     */
+    private Path stage(Path folder, InputStream content, String sha1) {
+        Path stagingFile = null;
+        try {
+            stagingFile = Files.createTempFile(folder, STAGING_PREFIX, ".tmp");
+            MessageDigest digest = Utils.createSha1Digest();
+            try (OutputStream outputStream = Files.newOutputStream(stagingFile)) {
+                transfer(new DigestInputStream(content, digest), outputStream, Long.MAX_VALUE);
+            }
+            String actualSha1 = Utils.toHex(digest.digest());
+            if (sha1 != null && !sha1.equalsIgnoreCase(actualSha1)) {
+                throw error(400, "sha1_mismatch", "Content doesn't match the given sha1 - expected: " + sha1 + ", actual: " + actualSha1);
+            }
+            Path result = stagingFile;
+            stagingFile = null;
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (stagingFile != null) {
+                deleteQuietly(stagingFile);
+            }
+        }
+    }
+
+    /**
+     * A hard link fails if the name is taken, even if another process created it a moment ago. A rename would replace it.
+     */
+    private void placeNewFile(Path stagingFile, Path file) {
+        try {
+            Files.createLink(file, stagingFile);
+        } catch (FileAlreadyExistsException e) {
+            throw nameInUse(file, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deleteQuietly(stagingFile);
+        }
+    }
+
+    private void replaceFile(Path stagingFile, Path file) {
+        try {
+            Files.move(stagingFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteQuietly(stagingFile);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path resolve(String id) {
+        Path path = rootDirectory.resolve(id).normalize();
+        if (!path.startsWith(rootDirectory) || path.getFileName().toString().startsWith(STAGING_PREFIX)) {
+            throw error(404, "not_found", "Not found: " + id);
+        }
+        return path;
+    }
+
+    private Path resolveFolder(String folderId) {
+        Path folder = resolve(folderId);
+        if (!Files.isDirectory(folder)) {
+            throw error(404, "not_found", "Folder not found: " + folderId);
+        }
+        return folder;
+    }
+
+    private Path resolveFile(String fileId) {
+        Path file = resolve(fileId);
+        if (!Files.isRegularFile(file)) {
+            throw error(404, "not_found", "File not found: " + fileId);
+        }
+        return file;
+    }
+
+    private String toId(Path path) {
+        return rootDirectory.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private static String validateName(String name) {
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.equals(".") || name.equals("..")
+                || name.startsWith(STAGING_PREFIX)) {
+            throw error(400, "item_name_invalid", "Item name is invalid: " + name);
+        }
+        return name;
+    }
+
+    private StorageItem toStorageItem(Path path) {
+        try {
+            long lastModifiedMillis = Files.getLastModifiedTime(path).toMillis();
+            if (Files.isDirectory(path)) {
+                return new StorageItem(BoxItemType.FOLDER, toId(path), path.getFileName().toString(), 0,
+                        null, Long.toString(lastModifiedMillis), Instant.ofEpochMilli(lastModifiedMillis).toString());
+            }
+            long size = Files.size(path);
+            return new StorageItem(BoxItemType.FILE, toId(path), path.getFileName().toString(), size,
+                    getSha1(path, lastModifiedMillis, size), Long.toString(lastModifiedMillis),
+                    Instant.ofEpochMilli(lastModifiedMillis).toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Box returns sha1 in listings without reading the file, here it is computed once and cached until the file changes.
+     */
+    private String getSha1(Path file, long lastModifiedMillis, long size) throws IOException {
+        CachedSha1 cachedSha1 = sha1Cache.get(file);
+        if (cachedSha1 != null && cachedSha1.lastModifiedMillis == lastModifiedMillis && cachedSha1.size == size) {
+            return cachedSha1.sha1;
+        }
+        MessageDigest digest = Utils.createSha1Digest();
+        try (InputStream inputStream = new DigestInputStream(Files.newInputStream(file), digest)) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+        }
+        String sha1 = Utils.toHex(digest.digest());
+        sha1Cache.put(file, new CachedSha1(lastModifiedMillis, size, sha1));
+        return sha1;
+    }
+
+    private BoxAPIException nameInUse(Path existingItem, boolean conflictsAsArray) {
+        Map<String, Object> conflict = new LinkedHashMap<>();
+        StorageItem item = toStorageItem(existingItem);
+        conflict.put("type", item.getType() == BoxItemType.FILE ? "file" : "folder");
+        conflict.put("id", item.getId());
+        conflict.put("name", item.getName());
+        if (item.getSha1() != null) {
+            conflict.put("sha1", item.getSha1());
+        }
+        // Box returns an object for upload conflicts and an array for folder conflicts.
+        Map<String, Object> contextInfo = Collections.singletonMap("conflicts",
+                conflictsAsArray ? Collections.singletonList(conflict) : conflict);
+        return new BoxAPIException("Item with the same name already exists", 409,
+                createErrorBody(409, "item_name_in_use", "Item with the same name already exists", contextInfo));
+    }
+
+    private static BoxAPIException rateLimitExceeded(long retryAfterSeconds) {
+        Map<String, List<String>> headers = Collections.singletonMap("Retry-After",
+                Collections.singletonList(Long.toString(retryAfterSeconds)));
+        return new BoxAPIException("Request rate limit exceeded", 429,
+                createErrorBody(429, "rate_limit_exceeded", "Request rate limit exceeded", null), headers);
+    }
+
+    private static BoxAPIException error(int status, String code, String message) {
+        return new BoxAPIException(message, status, createErrorBody(status, code, message, null));
+    }
+
+    private static String createErrorBody(int status, String code, String message, Map<String, Object> contextInfo) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("type", "error");
+        body.put("status", status);
+        body.put("code", code);
+        body.put("message", message);
+        if (contextInfo != null) {
+            body.put("context_info", contextInfo);
+        }
+        return Utils.convertToJsonString(body);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Staging file could not be deleted: " + path);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class CachedSha1 {
+
+        private final long lastModifiedMillis;
+        private final long size;
+        private final String sha1;
+
+        CachedSha1(long lastModifiedMillis, long size, String sha1) {
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.size = size;
+            this.sha1 = sha1;
+        }
+    }
+
+    /**
+     * Parts are written to their offsets in a staging file, which is moved into place on commit.
+     */
+    private class LocalUploadSession implements StorageUploadSession {
+
+        private final Path file;
+        private final boolean newVersion;
+        private final Path stagingFile;
+        private final FileChannel channel;
+
+        LocalUploadSession(Path file, boolean newVersion) {
+            this.file = file;
+            this.newVersion = newVersion;
+            try {
+                this.stagingFile = Files.createTempFile(file.getParent(), STAGING_PREFIX, ".tmp");
+                this.channel = FileChannel.open(stagingFile, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public int getPartSize() {
+            return PART_SIZE;
+        }
+
+        @Override
+        public void uploadPart(InputStream content, long offset, int partSize, long fileSize) {
+            startCall();
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(partSize);
+                long received = transfer(content, new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        buffer.put((byte) b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        buffer.put(b, off, len);
+                    }
+                }, partSize);
+                if (received != partSize) {
+                    throw error(400, "bad_request", "Part is incomplete - offset: " + offset + ", received: " + received);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, offset + buffer.position());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public StorageItem commit(String digestBase64) {
+            startCall();
+            try {
+                channel.close();
+                MessageDigest digest = Utils.createSha1Digest();
+                try (InputStream inputStream = new DigestInputStream(Files.newInputStream(stagingFile), digest)) {
+                    inputStream.transferTo(OutputStream.nullOutputStream());
+                }
+                if (!Base64.getEncoder().encodeToString(digest.digest()).equals(digestBase64)) {
+                    throw error(412, "sha1_mismatch", "Uploaded parts don't match the digest.");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (newVersion) {
+                replaceFile(stagingFile, file);
+            } else {
+                placeNewFile(stagingFile, file);
+            }
+            return toStorageItem(file);
+        }
+
+        @Override
+        public void abort() {
+            startCall();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                deleteQuietly(stagingFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.eoral.copyboxfolder;
+
+/**
+ * Conditions simulated by LocalStorageBackend. Zero means no delay or no limit.
+ */
+public class LocalStorageSimulation {
+
+    private final long latencyMillis;
+    private final long bandwidthBytesPerSecond;
+    private final int maxRequestsPerSecond;
+
+    /**
+     * @param latencyMillis Added to every call before it does anything.
+     * @param bandwidthBytesPerSecond Maximum speed of each download or upload stream.
+     * @param maxRequestsPerSecond Calls above this rate in a one second window fail with 429 and Retry-After.
+     */
+    public LocalStorageSimulation(long latencyMillis, long bandwidthBytesPerSecond, int maxRequestsPerSecond) {
+        this.latencyMillis = latencyMillis;
+        this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    public static LocalStorageSimulation none() {
+        return new LocalStorageSimulation(0, 0, 0);
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public long getBandwidthBytesPerSecond() {
+        return bandwidthBytesPerSecond;
+    }
+
+    public int getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+}
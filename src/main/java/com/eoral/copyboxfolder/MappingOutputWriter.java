@@ -0,0 +1,98 @@
+package com.eoral.copyboxfolder;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes each mapping to the output file as soon as the item is copied, so mappings are not kept in memory until the end.
+ * Lines are flushed in batches, unlike the checkpoint journal which flushes every line.
+ * Copies may run on virtual threads, so writes are guarded by a lock rather than a monitor, which would pin the carrier thread.
+ */
+public class MappingOutputWriter implements Closeable {
+
+    private final Path filePath;
+    private final OutputFormat outputFormat;
+    private final int flushBatchSize;
+    private final BufferedWriter writer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int unflushedLines = 0;
+    private long writtenLines = 0;
+
+    /**
+     * @param flushBatchSize Output is flushed after this many lines, and when the writer is closed.
+     */
+    public MappingOutputWriter(Path filePath, OutputFormat outputFormat, int flushBatchSize) {
+        this.filePath = filePath;
+        this.outputFormat = outputFormat;
+        this.flushBatchSize = flushBatchSize;
+        try {
+            writer = Files.newBufferedWriter(filePath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            if (outputFormat == OutputFormat.CSV) {
+                writer.write("type,sourceId,targetId");
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Path getFilePath() {
+        return filePath;
+    }
+
+    public long getWrittenLines() {
+        lock.lock();
+        try {
+            return writtenLines;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void write(BoxItemMapping boxItemMapping) {
+        String line = format(boxItemMapping);
+        lock.lock();
+        try {
+            writer.write(line);
+            writer.newLine();
+            writtenLines++;
+            if (++unflushedLines >= flushBatchSize) {
+                writer.flush();
+                unflushedLines = 0;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String format(BoxItemMapping boxItemMapping) {
+        if (outputFormat == OutputFormat.CSV) {
+            // Box ids are numeric and type is an enum constant, so no value needs quoting.
+            return boxItemMapping.getType() + "," + boxItemMapping.getSourceId() + "," + boxItemMapping.getTargetId();
+        } else {
+            return Utils.convertToJsonString(boxItemMapping);
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
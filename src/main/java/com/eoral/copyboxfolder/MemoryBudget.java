@@ -0,0 +1,99 @@
+package com.eoral.copyboxfolder;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process-wide number of bytes that may be held in transfer buffers at the same time.
+ * Workers reserve bytes before buffering and release them when done, so the total stays within the budget
+ * no matter how many workers are running.
+ * Waiting is done on a lock condition rather than a monitor, so a virtual thread waiting for the budget doesn't pin its carrier thread.
+ */
+public class MemoryBudget {
+
+    private final long capacityInBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition bytesReleased = lock.newCondition();
+    private long reservedInBytes = 0;
+    private long peakReservedInBytes = 0;
+    private final LongAdder rejectedReservations = new LongAdder();
+
+    public MemoryBudget(long capacityInBytes) {
+        if (capacityInBytes <= 0) {
+            throw new IllegalArgumentException("Memory budget should be greater than 0.");
+        }
+        this.capacityInBytes = capacityInBytes;
+    }
+
+    /**
+     * Reserves the bytes if they are available now. Returns false otherwise, the caller should use a transfer method
+     * which doesn't need the buffer.
+     */
+    public boolean tryReserve(long bytes) {
+        lock.lock();
+        try {
+            if (reservedInBytes + bytes > capacityInBytes) {
+                rejectedReservations.increment();
+                return false;
+            }
+            add(bytes);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the bytes are available. A request larger than the whole budget waits for the whole budget.
+     * Returns the number of bytes actually reserved, which should be passed to release.
+     */
+    public long reserve(long bytes) throws InterruptedException {
+        long bytesToReserve = Math.min(bytes, capacityInBytes);
+        lock.lock();
+        try {
+            while (reservedInBytes + bytesToReserve > capacityInBytes) {
+                bytesReleased.await();
+            }
+            add(bytesToReserve);
+            return bytesToReserve;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(long bytes) {
+        lock.lock();
+        try {
+            reservedInBytes -= bytes;
+            bytesReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(long bytes) {
+        reservedInBytes += bytes;
+        peakReservedInBytes = Math.max(peakReservedInBytes, reservedInBytes);
+    }
+
+    public long getReservedInBytes() {
+        lock.lock();
+        try {
+            return reservedInBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getStatsLine() {
+        lock.lock();
+        try {
+            return "reservedBytes: " + reservedInBytes + "/" + capacityInBytes
+                    + ", peakReservedBytes: " + peakReservedInBytes
+                    + ", rejectedReservations: " + rejectedReservations.sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
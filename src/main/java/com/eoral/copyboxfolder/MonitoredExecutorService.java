@@ -0,0 +1,21 @@
+package com.eoral.copyboxfolder;
+
+import java.util.concurrent.ExecutorService;
+
+public interface MonitoredExecutorService extends ExecutorService {
+
+    /**
+     * One line summary of the executor's state, printed periodically.
+     */
+    String getStatsLine();
+
+    /**
+     * Number of copy tasks waiting, either in the queue or for a permit.
+     */
+    int getQueueDepth();
+
+    /**
+     * Number of copy tasks running right now.
+     */
+    int getActiveTasks();
+}
@@ -0,0 +1,12 @@
+package com.eoral.copyboxfolder;
+
+public enum OutputFormat {
+    /**
+     * One json object per line.
+     */
+    JSON_LINES,
+    /**
+     * A header line followed by one type,sourceId,targetId line per item.
+     */
+    CSV
+}
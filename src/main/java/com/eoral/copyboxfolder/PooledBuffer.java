@@ -0,0 +1,115 @@
+package com.eoral.copyboxfolder;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory content made of chunks borrowed from a BufferPool. Replaces ByteArrayOutputStream,
+ * which grows by copying and needs one more copy for toByteArray.
+ * Not thread safe. Chunks should be given back with release when the content is no longer needed.
+ */
+public class PooledBuffer {
+
+    private final BufferPool bufferPool;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private long size = 0;
+
+    public PooledBuffer(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Discards the content but keeps the chunks, so the buffer can be written again e.g. when a download is retried.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    public void release() {
+        for (byte[] chunk : chunks) {
+            bufferPool.release(chunk);
+        }
+        chunks.clear();
+        size = 0;
+    }
+
+    public OutputStream newOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                int chunkSize = bufferPool.getBufferSizeInBytes();
+                while (len > 0) {
+                    int chunkIndex = (int) (size / chunkSize);
+                    int positionInChunk = (int) (size % chunkSize);
+                    if (chunkIndex == chunks.size()) {
+                        chunks.add(bufferPool.acquire());
+                    }
+                    int n = Math.min(len, chunkSize - positionInChunk);
+                    System.arraycopy(b, off, chunks.get(chunkIndex), positionInChunk, n);
+                    size += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+        };
+    }
+
+    /**
+     * Each call returns a new stream reading from the beginning, so an upload can be retried.
+     */
+    public InputStream newInputStream() {
+        return new InputStream() {
+            private long position = 0;
+
+            @Override
+            public int read() {
+                byte[] single = new byte[1];
+                int n = read(single, 0, 1);
+                return n == -1 ? -1 : (single[0] & 0xFF);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position >= size) {
+                    return -1;
+                }
+                int chunkSize = bufferPool.getBufferSizeInBytes();
+                int positionInChunk = (int) (position % chunkSize);
+                int n = (int) Math.min(len, Math.min(chunkSize - positionInChunk, size - position));
+                System.arraycopy(chunks.get((int) (position / chunkSize)), positionInChunk, b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, size - position);
+            }
+        };
+    }
+
+    public void updateDigest(MessageDigest digest) {
+        int chunkSize = bufferPool.getBufferSizeInBytes();
+        long remaining = size;
+        for (byte[] chunk : chunks) {
+            if (remaining <= 0) {
+                break;
+            }
+            int n = (int) Math.min(chunkSize, remaining);
+            digest.update(chunk, 0, n);
+            remaining -= n;
+        }
+    }
+}
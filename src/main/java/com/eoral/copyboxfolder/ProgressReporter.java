@@ -0,0 +1,77 @@
+package com.eoral.copyboxfolder;
+
+import java.util.Locale;
+
+/**
+ * Builds the periodic progress lines from the metrics. Rates are computed over the time since the previous report,
+ * so they show the current speed rather than the average of the whole run.
+ */
+public class ProgressReporter {
+
+    private final TransferMetrics metrics;
+    private long lastReportNanos;
+    private long lastDownloadedBytes = 0;
+    private long lastUploadedBytes = 0;
+    private long lastCompletedBytes = 0;
+
+    public ProgressReporter(TransferMetrics metrics) {
+        this.metrics = metrics;
+        this.lastReportNanos = metrics.getElapsedNanos();
+    }
+
+    /**
+     * ETA is based on the bytes completed since the previous report. It only covers the items discovered so far,
+     * traversal may still be finding more.
+     */
+    public synchronized String getProgressLine() {
+        long nowNanos = metrics.getElapsedNanos();
+        double intervalSeconds = Math.max(1e-3, (nowNanos - lastReportNanos) / 1e9);
+        long downloadedBytes = metrics.getDownloadedBytes();
+        long uploadedBytes = metrics.getUploadedBytes();
+        long completedBytes = metrics.getCompletedBytes();
+        long discoveredBytes = metrics.getDiscoveredBytes();
+        double completedBytesPerSecond = (completedBytes - lastCompletedBytes) / intervalSeconds;
+        String line = "files: " + metrics.getCompletedFiles() + "/" + metrics.getDiscoveredFiles()
+                + " (skipped: " + metrics.getSkippedFiles() + ", failed: " + metrics.getFailedFiles() + ")"
+                + ", folders: " + metrics.getCompletedFolders() + "/" + metrics.getDiscoveredFolders()
+                + ", bytes: " + Utils.formatBytes(completedBytes) + "/" + Utils.formatBytes(discoveredBytes)
+                + ", download: " + Utils.formatBytes((long) ((downloadedBytes - lastDownloadedBytes) / intervalSeconds)) + "/s"
+                + ", upload: " + Utils.formatBytes((long) ((uploadedBytes - lastUploadedBytes) / intervalSeconds)) + "/s"
+                + ", eta: " + formatEta(discoveredBytes - completedBytes, completedBytesPerSecond);
+        lastReportNanos = nowNanos;
+        lastDownloadedBytes = downloadedBytes;
+        lastUploadedBytes = uploadedBytes;
+        lastCompletedBytes = completedBytes;
+        return line;
+    }
+
+    /**
+     * Calls, 95th percentile latency (bucket upper bound) and throttling of a connection, operations without calls are left out.
+     */
+    public String getApiLine(TransferMetrics.ConnectionMetrics connection) {
+        StringBuilder sb = new StringBuilder();
+        for (BoxOperation operation : BoxOperation.values()) {
+            TransferMetrics.OperationMetrics operationMetrics = connection.operation(operation);
+            long calls = operationMetrics.getCalls();
+            if (calls == 0) {
+                continue;
+            }
+            long p95 = operationMetrics.getLatency().getPercentileUpperBoundMillis(95);
+            sb.append(operation.name().toLowerCase(Locale.ROOT)).append(": ").append(calls)
+                    .append(" (p95: ").append(p95 < 0 ? "slow" : "<=" + p95 + "ms").append("), ");
+        }
+        return sb.append("429: ").append(connection.getRateLimited())
+                .append(", 5xx: ").append(connection.getServerErrors())
+                .append(", retries: ").append(connection.isCountedByClient() ? "n/a (SDK retries)" : connection.getRetries()).toString();
+    }
+
+    private static String formatEta(long remainingBytes, double bytesPerSecond) {
+        if (remainingBytes <= 0) {
+            return "-";
+        }
+        if (bytesPerSecond <= 0) {
+            return "unknown";
+        }
+        return Utils.formatDuration((long) (remainingBytes / bytesPerSecond));
+    }
+}
@@ -0,0 +1,14 @@
+package com.eoral.copyboxfolder;
+
+public enum SchedulingMode {
+    /**
+     * Files are copied in listing order while the tree is being traversed. Copying starts right away,
+     * but a large file found late may run alone long after everything else is done.
+     */
+    STREAMING,
+    /**
+     * The whole source tree is listed into a manifest first and totals are reported. Then folders are created and
+     * files are copied largest-first, large files on their own lane so they don't hold up small ones.
+     */
+    PLANNED
+}
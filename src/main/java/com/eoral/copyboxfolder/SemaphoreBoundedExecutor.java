@@ -0,0 +1,102 @@
+package com.eoral.copyboxfolder;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of tasks running on an executor which doesn't limit them itself, e.g. a virtual thread per task executor.
+ * A task takes a permit before it is handed to the executor, so the submitting thread blocks when the limit is reached.
+ */
+public class SemaphoreBoundedExecutor extends AbstractExecutorService implements MonitoredExecutorService {
+
+    private final ExecutorService delegate;
+    private final int maxConcurrentTasks;
+    private final Semaphore permits;
+    private final LongAdder producerWaitNanos = new LongAdder();
+    private final LongAdder completedTasks = new LongAdder();
+
+    public SemaphoreBoundedExecutor(ExecutorService delegate, int maxConcurrentTasks) {
+        this.delegate = delegate;
+        this.maxConcurrentTasks = maxConcurrentTasks;
+        this.permits = new Semaphore(maxConcurrentTasks);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (delegate.isShutdown()) {
+            throw new RejectedExecutionException("Executor is shut down.");
+        }
+        long startNanos = System.nanoTime();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a permit.", e);
+        } finally {
+            producerWaitNanos.add(System.nanoTime() - startNanos);
+        }
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    completedTasks.increment();
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * There is no queue, this is the number of producers blocked waiting for a permit.
+     */
+    @Override
+    public int getQueueDepth() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public int getActiveTasks() {
+        return maxConcurrentTasks - permits.availablePermits();
+    }
+
+    @Override
+    public String getStatsLine() {
+        return "inFlight: " + getActiveTasks() + "/" + maxConcurrentTasks
+                + ", completedTasks: " + completedTasks.sum()
+                + ", producerWaitMillis: " + TimeUnit.NANOSECONDS.toMillis(producerWaitNanos.sum());
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
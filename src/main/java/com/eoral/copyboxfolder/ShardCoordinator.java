@@ -0,0 +1,419 @@
+package com.eoral.copyboxfolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits one copy between several worker processes through a shared directory, e.g. on a network file system.
+ * Work is split by folder: a task is a source folder, and a worker copying it publishes a task for each subfolder.
+ * <p>
+ * A task file moves between directories with atomic renames, so exactly one worker wins each move:
+ * tasks (waiting) to leases (claimed by a worker) to done. Each claim renames the task to a lease file with a new
+ * token in its name, so only the claim which created a lease can complete it: a worker whose lease expired and was
+ * claimed again by another worker finds its own lease file gone. A worker renews its leases by rewriting the files
+ * with a new renewal number, and writes its lease expiry into them.
+ * A lease whose content doesn't change within its expiry, e.g. because its worker died, is moved back to tasks and
+ * claimed by another worker. The expiry is measured by the reclaiming worker's own clock from when it first saw the
+ * current content, never by comparing file times or timestamps of another machine, so worker clocks needn't be in sync.
+ * A task may so run twice, which is safe since existing target items are found and reused.
+ * A task which fails is put back to tasks, and moved to failed after the given number of attempts.
+ * The copy is finished when there are no tasks and no leases, since a task publishes its subfolders before it is done.
+ */
+public class ShardCoordinator {
+
+    private static final String TASK_SUFFIX = ".json";
+    private static final String LEASE_SUFFIX = ".lease";
+
+    private final Path directory;
+    private final Path tasksDirectory;
+    private final Path leasesDirectory;
+    private final Path doneDirectory;
+    private final Path failedDirectory;
+    private final Path workersDirectory;
+    private final Path jobFilePath;
+    private final Path initLockPath;
+    private final Path mergeLockPath;
+    private final String workerId;
+    private final long leaseExpiryMillis;
+    private final int maxAttempts;
+    private final Map<String, ShardTask> heldLeases = new ConcurrentHashMap<>();
+    private final AtomicLong renewalCounter = new AtomicLong();
+    private final Map<String, LeaseObservation> observedLeases = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxAttempts A task failing this many times is not run again.
+     */
+    public ShardCoordinator(Path directory, String workerId, long leaseExpiryMillis, int maxAttempts) {
+        this.directory = directory;
+        this.tasksDirectory = directory.resolve("tasks");
+        this.leasesDirectory = directory.resolve("leases");
+        this.doneDirectory = directory.resolve("done");
+        this.failedDirectory = directory.resolve("failed");
+        this.workersDirectory = directory.resolve("workers");
+        this.jobFilePath = directory.resolve("job.json");
+        this.initLockPath = directory.resolve("init.lock");
+        this.mergeLockPath = directory.resolve("merge.lock");
+        this.workerId = workerId;
+        this.leaseExpiryMillis = leaseExpiryMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * The first worker publishes the root task, the others wait for it. All workers must copy the same folders.
+     */
+    public void join(String sourceFolderId, String targetFolderId) {
+        try {
+            Files.createDirectories(tasksDirectory);
+            Files.createDirectories(leasesDirectory);
+            Files.createDirectories(doneDirectory);
+            Files.createDirectories(failedDirectory);
+            Files.createDirectories(getWorkerDirectory());
+            try {
+                Files.createFile(initLockPath);
+                publish(new ShardTask(sourceFolderId, targetFolderId));
+                Map<String, String> job = new LinkedHashMap<>();
+                job.put("sourceFolderId", sourceFolderId);
+                job.put("targetFolderId", targetFolderId);
+                writeAtomically(jobFilePath, Utils.convertToJsonString(job));
+            } catch (FileAlreadyExistsException e) {
+                while (!Files.exists(jobFilePath)) {
+                    Thread.sleep(100);
+                }
+            }
+            JsonNode job = Utils.convertToJsonNode(new String(Files.readAllBytes(jobFilePath), StandardCharsets.UTF_8));
+            if (!sourceFolderId.equals(job.get("sourceFolderId").textValue())
+                    || !targetFolderId.equals(job.get("targetFolderId").textValue())) {
+                throw new IllegalStateException("Shard directory belongs to another copy: " + jobFilePath.toAbsolutePath());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Does nothing if the task is already claimed, done or failed, e.g. when a parent task runs again.
+     */
+    public void publish(ShardTask task) {
+        String key = task.getKey();
+        if (Files.exists(doneDirectory.resolve(key + TASK_SUFFIX)) || Files.exists(failedDirectory.resolve(key + TASK_SUFFIX))
+                || !listFiles(leasesDirectory, key + ".*" + LEASE_SUFFIX).isEmpty()) {
+            return;
+        }
+        writeAtomically(tasksDirectory.resolve(key + TASK_SUFFIX), Utils.convertToJsonString(task));
+    }
+
+    /**
+     * Returns a waiting task leased to this worker, or null if there is none now.
+     */
+    public Lease claim() {
+        for (Path taskFilePath : listFiles(tasksDirectory, "*" + TASK_SUFFIX)) {
+            String key = getKey(taskFilePath);
+            String leaseFileName = key + "." + workerId + "-" + UUID.randomUUID() + LEASE_SUFFIX;
+            Path leaseFilePath = leasesDirectory.resolve(leaseFileName);
+            try {
+                Files.move(taskFilePath, leaseFilePath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                // Claimed by another worker in the meantime.
+                continue;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            try {
+                ShardTask task = ShardTask.fromJson(
+                        Utils.convertToJsonNode(new String(Files.readAllBytes(leaseFilePath), StandardCharsets.UTF_8)));
+                writeLease(leaseFileName, task);
+                heldLeases.put(leaseFileName, task);
+                return new Lease(leaseFileName, task);
+            } catch (NoSuchFileException e) {
+                // Taken back already, which happens only if this worker stalled longer than the expiry.
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns false if the lease expired and was taken back in the meantime. The task is then run again, or is being
+     * run, by another worker, and only that worker completes it.
+     */
+    public boolean complete(Lease lease) {
+        heldLeases.remove(lease.leaseFileName);
+        try {
+            Files.move(leasesDirectory.resolve(lease.leaseFileName), doneDirectory.resolve(lease.task.getKey() + TASK_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException e) {
+            System.err.println("Lease expired before the task completed, another worker runs it - sourceFolderId: "
+                    + lease.task.getSourceFolderId());
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Releases the lease of a failed task. The task is put back for any worker to try again, or moved to failed
+     * with the error after maxAttempts. Does nothing if the lease expired and was taken back in the meantime.
+     */
+    public void fail(Lease lease, Throwable failure) {
+        heldLeases.remove(lease.leaseFileName);
+        ShardTask failedTask = lease.task.withFailedAttempt();
+        Path leaseFilePath = leasesDirectory.resolve(lease.leaseFileName);
+        String key = lease.task.getKey();
+        if (!Files.exists(leaseFilePath)) {
+            // Taken back after expiry, another worker runs it.
+            return;
+        }
+        // Written before the lease is deleted, so the task is never missing from both tasks and leases.
+        if (failedTask.getFailedAttempts() < maxAttempts) {
+            writeAtomically(tasksDirectory.resolve(key + TASK_SUFFIX), Utils.convertToJsonString(failedTask));
+        } else {
+            Map<String, Object> failed = new LinkedHashMap<>();
+            failed.put("task", failedTask);
+            failed.put("error", String.valueOf(failure));
+            writeAtomically(failedDirectory.resolve(key + TASK_SUFFIX), Utils.convertToJsonString(failed));
+        }
+        try {
+            Files.deleteIfExists(leaseFilePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Should be called well within the lease expiry. Leases taken back in the meantime are forgotten.
+     */
+    public void renewLeases() {
+        for (Map.Entry<String, ShardTask> heldLease : heldLeases.entrySet()) {
+            try {
+                writeLease(heldLease.getKey(), heldLease.getValue());
+            } catch (NoSuchFileException e) {
+                heldLeases.remove(heldLease.getKey());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Moves expired leases back to tasks. Returns the number of leases taken back.
+     * A lease is expired when this worker has seen the same content for the expiry written in it, so a lease is
+     * never taken back at its first sighting, and should be checked more often than the expiry.
+     */
+    public int reclaimExpiredLeases() {
+        int reclaimed = 0;
+        Set<String> listedLeaseFileNames = new HashSet<>();
+        for (Path leaseFilePath : listFiles(leasesDirectory, "*" + LEASE_SUFFIX)) {
+            String leaseFileName = leaseFilePath.getFileName().toString();
+            listedLeaseFileNames.add(leaseFileName);
+            try {
+                String content = new String(Files.readAllBytes(leaseFilePath), StandardCharsets.UTF_8);
+                long now = System.nanoTime();
+                LeaseObservation observation = observedLeases.get(leaseFileName);
+                if (observation == null || !observation.content.equals(content)) {
+                    observedLeases.put(leaseFileName, new LeaseObservation(content, now, getLeaseDurationMillis(content)));
+                } else if (now - observation.firstSeenNanos >= TimeUnit.MILLISECONDS.toNanos(observation.leaseDurationMillis)) {
+                    Files.move(leaseFilePath, tasksDirectory.resolve(getKey(leaseFilePath) + TASK_SUFFIX),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    observedLeases.remove(leaseFileName);
+                    reclaimed++;
+                }
+            } catch (NoSuchFileException e) {
+                // Completed, or taken back by another worker.
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        observedLeases.keySet().retainAll(listedLeaseFileNames);
+        return reclaimed;
+    }
+
+    /**
+     * Written in place rather than replaced, so a lease taken back in the meantime isn't created again.
+     * A reader may see a partially written lease, which only counts as a renewal.
+     */
+    private void writeLease(String leaseFileName, ShardTask task) throws IOException {
+        Map<String, Object> lease = new LinkedHashMap<>();
+        lease.put("sourceFolderId", task.getSourceFolderId());
+        lease.put("targetFolderId", task.getTargetFolderId());
+        lease.put("failedAttempts", task.getFailedAttempts());
+        lease.put("holder", workerId);
+        lease.put("leaseDurationMillis", leaseExpiryMillis);
+        lease.put("renewal", renewalCounter.incrementAndGet());
+        // Informational only, expiry never compares it with another clock.
+        lease.put("renewedAt", Instant.now().toString());
+        Files.write(leasesDirectory.resolve(leaseFileName), Utils.convertToJsonString(lease).getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * The holder's expiry, or this worker's if the lease isn't written by its holder yet or is read half written.
+     */
+    private long getLeaseDurationMillis(String content) {
+        try {
+            JsonNode leaseDurationMillis = Utils.convertToJsonNode(content).get("leaseDurationMillis");
+            return leaseDurationMillis == null ? leaseExpiryMillis : leaseDurationMillis.longValue();
+        } catch (UncheckedIOException e) {
+            return leaseExpiryMillis;
+        }
+    }
+
+    /**
+     * True if no task is waiting and no worker holds a live lease, so every task is done or failed.
+     * Listing two directories is not atomic, a task may be claimed, complete and publish subtasks in between.
+     * So leases are checked again after tasks, and nothing may complete or fail meanwhile.
+     */
+    public boolean isFinished() {
+        int endedBefore = getNumberOfEndedTasks();
+        return listFiles(leasesDirectory, "*").isEmpty()
+                && listFiles(tasksDirectory, "*" + TASK_SUFFIX).isEmpty()
+                && listFiles(leasesDirectory, "*").isEmpty()
+                && getNumberOfEndedTasks() == endedBefore;
+    }
+
+    private int getNumberOfEndedTasks() {
+        return listFiles(doneDirectory, "*" + TASK_SUFFIX).size() + listFiles(failedDirectory, "*" + TASK_SUFFIX).size();
+    }
+
+    /**
+     * Tasks which failed maxAttempts times, their folders are not copied completely.
+     */
+    public int getNumberOfFailedTasks() {
+        return listFiles(failedDirectory, "*" + TASK_SUFFIX).size();
+    }
+
+    /**
+     * Returns true for only one worker, which should merge the outputs of all workers.
+     * Should be called only when the copy is finished.
+     */
+    public boolean tryStartMerge() {
+        try {
+            Files.createFile(mergeLockPath);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Path getFailedDirectory() {
+        return failedDirectory;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * Where this worker writes its journal, output and metrics.
+     */
+    public Path getWorkerDirectory() {
+        return workersDirectory.resolve(workerId);
+    }
+
+    public List<Path> getWorkerDirectories() {
+        return listFiles(workersDirectory, "*");
+    }
+
+    /**
+     * Task, lease and done file names start with the task key, which is hex and has no dots.
+     */
+    private static String getKey(Path filePath) {
+        String fileName = filePath.getFileName().toString();
+        return fileName.substring(0, fileName.indexOf('.'));
+    }
+
+    /**
+     * Temp files of writes in progress are never returned.
+     */
+    private static List<Path> listFiles(Path directory, String glob) {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path path : stream) {
+                if (!path.getFileName().toString().endsWith(".tmp")) {
+                    files.add(path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return files;
+    }
+
+    /**
+     * Other workers never see a partially written file.
+     */
+    private void writeAtomically(Path filePath, String content) {
+        Path tempFilePath = filePath.resolveSibling(filePath.getFileName() + "." + workerId + "-" + UUID.randomUUID() + ".tmp");
+        try {
+            Files.write(tempFilePath, content.getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Content of a lease as this worker first saw it, and when.
+     */
+    private static class LeaseObservation {
+
+        private final String content;
+        private final long firstSeenNanos;
+        private final long leaseDurationMillis;
+
+        LeaseObservation(String content, long firstSeenNanos, long leaseDurationMillis) {
+            this.content = content;
+            this.firstSeenNanos = firstSeenNanos;
+            this.leaseDurationMillis = leaseDurationMillis;
+        }
+    }
+
+    /**
+     * A task claimed by this worker. Only the claim which created the lease can complete or fail it.
+     */
+    public static class Lease {
+
+        private final String leaseFileName;
+        private final ShardTask task;
+
+        private Lease(String leaseFileName, ShardTask task) {
+            this.leaseFileName = leaseFileName;
+            this.task = task;
+        }
+
+        public ShardTask getTask() {
+            return task;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.eoral.copyboxfolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A source folder to be copied into an existing target folder by one of the workers of a sharded run:
+ * its files are copied, and a task is published for each of its subfolders.
+ */
+public class ShardTask {
+
+    private final String sourceFolderId;
+    private final String targetFolderId;
+    private final int failedAttempts;
+
+    public ShardTask(String sourceFolderId, String targetFolderId) {
+        this(sourceFolderId, targetFolderId, 0);
+    }
+
+    private ShardTask(String sourceFolderId, String targetFolderId, int failedAttempts) {
+        this.sourceFolderId = sourceFolderId;
+        this.targetFolderId = targetFolderId;
+        this.failedAttempts = failedAttempts;
+    }
+
+    static ShardTask fromJson(JsonNode jsonNode) {
+        JsonNode failedAttempts = jsonNode.get("failedAttempts");
+        return new ShardTask(jsonNode.get("sourceFolderId").textValue(), jsonNode.get("targetFolderId").textValue(),
+                failedAttempts == null ? 0 : failedAttempts.intValue());
+    }
+
+    public String getSourceFolderId() {
+        return sourceFolderId;
+    }
+
+    public String getTargetFolderId() {
+        return targetFolderId;
+    }
+
+    /**
+     * Number of times a worker failed this task. A task abandoned by a dead worker doesn't count as failed.
+     */
+    public int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    ShardTask withFailedAttempt() {
+        return new ShardTask(sourceFolderId, targetFolderId, failedAttempts + 1);
+    }
+
+    /**
+     * Identifies the task in the shard directory. Source ids may contain characters not allowed in file names
+     * (the local backend uses paths), so the sha1 of the id is used.
+     */
+    String getKey() {
+        return Utils.toHex(Utils.createSha1Digest().digest(sourceFolderId.getBytes(StandardCharsets.UTF_8)));
+    }
+}
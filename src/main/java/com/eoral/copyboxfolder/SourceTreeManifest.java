@@ -0,0 +1,155 @@
+package com.eoral.copyboxfolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Every folder and file of the source tree, found by listing the whole tree before anything is copied.
+ * Folders are kept by parent, so target folders can be created top-down without listing the source again.
+ * Files are kept in a flat list, so they can be scheduled by size instead of in listing order.
+ * Items are added from several traversal threads at the same time.
+ */
+public class SourceTreeManifest {
+
+    private final Map<String, Queue<StorageItem>> subfoldersByParentId = new ConcurrentHashMap<>();
+    private final Queue<ManifestFile> files = new ConcurrentLinkedQueue<>();
+    private final Set<String> unlistedFolderIds = ConcurrentHashMap.newKeySet();
+    private final LongAdder numberOfFolders = new LongAdder();
+    private final LongAdder numberOfFiles = new LongAdder();
+    private final LongAdder totalBytes = new LongAdder();
+    private final AtomicLong largestFileSize = new AtomicLong();
+
+    public void addFolder(String parentFolderId, StorageItem folder) {
+        subfoldersByParentId.computeIfAbsent(parentFolderId, id -> new ConcurrentLinkedQueue<>()).add(folder);
+        numberOfFolders.increment();
+    }
+
+    /**
+     * Adds a folder whose children are not listed, because it is unchanged since the previous incremental run.
+     */
+    public void addUnlistedFolder(String parentFolderId, StorageItem folder) {
+        addFolder(parentFolderId, folder);
+        unlistedFolderIds.add(folder.getId());
+    }
+
+    /**
+     * False if the children of the folder are not in the manifest.
+     */
+    public boolean isListed(String folderId) {
+        return !unlistedFolderIds.contains(folderId);
+    }
+
+    public void addFile(String parentFolderId, StorageItem file) {
+        files.add(new ManifestFile(parentFolderId, file));
+        numberOfFiles.increment();
+        totalBytes.add(file.getSize());
+        largestFileSize.accumulateAndGet(file.getSize(), Math::max);
+    }
+
+    public Iterable<StorageItem> getSubfolders(String parentFolderId) {
+        Queue<StorageItem> subfolders = subfoldersByParentId.get(parentFolderId);
+        return subfolders == null ? Collections.emptyList() : subfolders;
+    }
+
+    /**
+     * Returns the files in the order they were found.
+     */
+    public List<ManifestFile> getFilesInListingOrder() {
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * Returns the files with size at least minSize and less than maxSize, largest first.
+     */
+    public List<ManifestFile> getFilesLargestFirst(long minSize, long maxSize) {
+        List<ManifestFile> result = new ArrayList<>();
+        for (ManifestFile file : files) {
+            long size = file.getItem().getSize();
+            if (size >= minSize && size < maxSize) {
+                result.add(file);
+            }
+        }
+        result.sort(Comparator.comparingLong((ManifestFile file) -> file.getItem().getSize()).reversed());
+        return result;
+    }
+
+    public long getNumberOfFolders() {
+        return numberOfFolders.sum();
+    }
+
+    public long getNumberOfFiles() {
+        return numberOfFiles.sum();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.sum();
+    }
+
+    public long getLargestFileSize() {
+        return largestFileSize.get();
+    }
+
+    public String getSummaryLine() {
+        return "folders: " + getNumberOfFolders() + ", files: " + getNumberOfFiles()
+                + ", bytes: " + Utils.formatBytes(getTotalBytes()) + ", largest file: " + Utils.formatBytes(getLargestFileSize());
+    }
+
+    /**
+     * Simulates copying the files on the given number of workers, each next file going to the worker which becomes free first.
+     * Files must be in the order they are submitted. Returns the time the last worker finishes, in seconds.
+     * @param bytesPerSecond Expected speed of a single file transfer.
+     * @param secondsPerFile Expected fixed cost of a file (existence check, upload call latency etc.) regardless of its size.
+     * @param largeFileThresholdInBytes Files of this size or larger are transferred in partConcurrency parts at the same time.
+     */
+    public static double estimateSeconds(List<ManifestFile> files, int workers, double bytesPerSecond, double secondsPerFile,
+                                         long largeFileThresholdInBytes, int partConcurrency) {
+        if (files.isEmpty()) {
+            return 0;
+        }
+        PriorityQueue<Double> workerFreeAt = new PriorityQueue<>();
+        for (int i = 0; i < workers; i++) {
+            workerFreeAt.add(0.0);
+        }
+        double finishedAt = 0;
+        for (ManifestFile file : files) {
+            long size = file.getItem().getSize();
+            double speed = size >= largeFileThresholdInBytes ? bytesPerSecond * partConcurrency : bytesPerSecond;
+            double fileFinishedAt = workerFreeAt.poll() + secondsPerFile + size / speed;
+            workerFreeAt.add(fileFinishedAt);
+            finishedAt = Math.max(finishedAt, fileFinishedAt);
+        }
+        return finishedAt;
+    }
+
+    public static class ManifestFile {
+
+        private final String parentFolderId;
+        private final StorageItem item;
+
+        ManifestFile(String parentFolderId, StorageItem item) {
+            this.parentFolderId = parentFolderId;
+            this.item = item;
+        }
+
+        /**
+         * Id of the source folder containing the file.
+         */
+        public String getParentFolderId() {
+            return parentFolderId;
+        }
+
+        public StorageItem getItem() {
+            return item;
+        }
+    }
+}
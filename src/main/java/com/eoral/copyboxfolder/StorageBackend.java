@@ -0,0 +1,85 @@
+package com.eoral.copyboxfolder;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * All calls the copier makes to a source or target storage. The Box implementation is used for real copies,
+ * the local one for benchmarks and tests.
+ * Errors are reported as BoxAPIException with Box status codes and error bodies (e.g. 409 item_name_in_use with conflicts,
+ * 429 with Retry-After), so limiters and conflict handling work the same way for every backend.
+ */
+public interface StorageBackend {
+
+    /**
+     * Returns at most limit children of the folder, starting after the given marker, or from the first child if it is null.
+     * Items have type, id, name, size, sha1, etag and modifiedAt, no other fields are requested.
+     * Items other than files and folders (e.g. web links) are left out.
+     */
+    StoragePage listChildren(String folderId, String marker, int limit);
+
+    StorageItem getFolder(String folderId);
+
+    StorageItem getFile(String fileId);
+
+    StorageItem createFolder(String parentFolderId, String name);
+
+    /**
+     * Finds a direct child of the folder by exact name using search, returns null if there is none.
+     * Search may not find an item created a moment ago, listing or canUpload should be preferred.
+     */
+    StorageItem searchChild(String parentFolderId, BoxItemType type, String name);
+
+    /**
+     * Preflight check, fails with 409 if the name is in use.
+     */
+    void canUpload(String parentFolderId, String name, long size);
+
+    void download(String fileId, OutputStream outputStream);
+
+    /**
+     * @param rangeEnd Inclusive.
+     */
+    void downloadRange(String fileId, OutputStream outputStream, long rangeStart, long rangeEnd);
+
+    /**
+     * @param sha1 Expected sha1 of the content in hex, or null. If given, the upload fails when the received content doesn't match it.
+     */
+    StorageItem uploadFile(String parentFolderId, String name, InputStream content, String sha1);
+
+    StorageItem uploadNewVersion(String fileId, InputStream content, String sha1);
+
+    StorageUploadSession createUploadSession(String parentFolderId, String name, long fileSize);
+
+    StorageUploadSession createNewVersionUploadSession(String fileId, long fileSize);
+
+    void deleteFile(String fileId);
+
+    /**
+     * Copies the file without transferring its content through the application. The copy is named newName.
+     */
+    StorageItem copyFile(String fileId, String targetFolderId, String newName);
+
+    StorageItem copyFolder(String folderId, String targetParentFolderId);
+
+    /**
+     * Moves and/or renames the file, fails with 409 if the name is in use in the target folder.
+     * Returns the moved file, its id may be different from the given one on backends where ids depend on the path.
+     */
+    StorageItem moveFile(String fileId, String targetFolderId, String newName);
+
+    StorageItem moveFolder(String folderId, String targetParentFolderId, String newName);
+
+    /**
+     * Called when throttled calls are retried by the application, so that the backend reports them instead of retrying itself.
+     */
+    default void disableClientRetries() {
+    }
+
+    /**
+     * Called when the backend retries throttled calls itself. A backend which sees every response counts 429 and 5xx
+     * responses in the given metrics, the retried ones included, and marks the metrics as counted by the client.
+     */
+    default void countThrottledResponses(TransferMetrics.ConnectionMetrics metrics) {
+    }
+}
@@ -0,0 +1,12 @@
+package com.eoral.copyboxfolder;
+
+public enum StorageBackendType {
+    /**
+     * Real Box accounts, configured with box-config-to-access-source-folder.json and box-config-to-access-target-folder.json.
+     */
+    BOX,
+    /**
+     * A local directory which behaves like Box, with simulated latency, bandwidth and rate limits. For benchmarks and tests.
+     */
+    LOCAL
+}
@@ -0,0 +1,58 @@
+package com.eoral.copyboxfolder;
+
+/**
+ * A file or folder as returned by a storage backend, with only the fields the copier needs.
+ */
+public class StorageItem {
+
+    private final BoxItemType type;
+    private final String id;
+    private final String name;
+    private final long size;
+    private final String sha1;
+    private final String etag;
+    private final String modifiedAt;
+
+    /**
+     * @param sha1 Null for folders, or if the backend didn't return it.
+     * @param etag Null if the backend didn't return it.
+     * @param modifiedAt ISO-8601 instant, or null if the backend didn't return it.
+     */
+    public StorageItem(BoxItemType type, String id, String name, long size, String sha1, String etag, String modifiedAt) {
+        this.type = type;
+        this.id = id;
+        this.name = name;
+        this.size = size;
+        this.sha1 = sha1;
+        this.etag = etag;
+        this.modifiedAt = modifiedAt;
+    }
+
+    public BoxItemType getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getModifiedAt() {
+        return modifiedAt;
+    }
+}
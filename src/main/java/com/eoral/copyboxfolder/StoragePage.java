@@ -0,0 +1,34 @@
+package com.eoral.copyboxfolder;
+
+import java.util.List;
+
+/**
+ * One page of a folder listing.
+ */
+public class StoragePage {
+
+    private final List<StorageItem> items;
+    private final String nextMarker;
+
+    /**
+     * @param nextMarker Marker of the next page, or null if there are no more children after this page.
+     *                   A page may be shorter than requested without being the last one, e.g. when items the copier
+     *                   doesn't support are left out.
+     */
+    public StoragePage(List<StorageItem> items, String nextMarker) {
+        this.items = items;
+        this.nextMarker = nextMarker;
+    }
+
+    public List<StorageItem> getItems() {
+        return items;
+    }
+
+    public String getNextMarker() {
+        return nextMarker;
+    }
+
+    public boolean isLastPage() {
+        return nextMarker == null;
+    }
+}
@@ -0,0 +1,20 @@
+package com.eoral.copyboxfolder;
+
+import java.io.InputStream;
+
+/**
+ * A chunked upload. Parts can be uploaded in any order and at the same time, a part uploaded again replaces the previous one.
+ */
+public interface StorageUploadSession {
+
+    int getPartSize();
+
+    void uploadPart(InputStream content, long offset, int partSize, long fileSize);
+
+    /**
+     * @param digestBase64 Sha1 of the whole file in base64, the session fails if the uploaded parts don't match it.
+     */
+    StorageItem commit(String digestBase64);
+
+    void abort();
+}
@@ -0,0 +1,124 @@
+package com.eoral.copyboxfolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Items synced by the previous incremental run, and the items synced by the current one.
+ * The state file has a header line with the source and target folder ids, then one json object per item.
+ * A state written for other folders is ignored, items are then checked by name like in a full run.
+ */
+public class SyncState {
+
+    private final Map<String, SyncStateEntry> previousEntries;
+    private final Map<String, List<SyncStateEntry>> previousEntriesByParentId = new HashMap<>();
+    private final Map<String, SyncStateEntry> currentEntries = new ConcurrentHashMap<>();
+
+    private SyncState(Map<String, SyncStateEntry> previousEntries) {
+        this.previousEntries = previousEntries;
+        for (SyncStateEntry entry : previousEntries.values()) {
+            previousEntriesByParentId.computeIfAbsent(entry.getSourceParentId(), id -> new ArrayList<>()).add(entry);
+        }
+    }
+
+    /**
+     * Returns an empty state if the file doesn't exist or belongs to other folders.
+     */
+    public static SyncState load(Path filePath, String sourceFolderId, String targetFolderId) {
+        Map<String, SyncStateEntry> entries = new HashMap<>();
+        if (!Files.exists(filePath)) {
+            return new SyncState(entries);
+        }
+        try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
+            String headerLine = reader.readLine();
+            JsonNode header = headerLine == null ? null : Utils.convertToJsonNode(headerLine);
+            if (header == null || !sourceFolderId.equals(header.get("sourceFolderId").textValue())
+                    || !targetFolderId.equals(header.get("targetFolderId").textValue())) {
+                System.out.println("Sync state is for other folders, it is ignored: " + filePath.toAbsolutePath());
+                return new SyncState(entries);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                SyncStateEntry entry = SyncStateEntry.fromJson(Utils.convertToJsonNode(line));
+                entries.put(entry.getSourceId(), entry);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new SyncState(entries);
+    }
+
+    /**
+     * Returns null if the item was not synced by the previous run.
+     */
+    public SyncStateEntry getPrevious(String sourceId) {
+        return previousEntries.get(sourceId);
+    }
+
+    /**
+     * Items which were in the given source folder in the previous run.
+     */
+    public List<SyncStateEntry> getPreviousChildren(String sourceFolderId) {
+        return previousEntriesByParentId.getOrDefault(sourceFolderId, Collections.emptyList());
+    }
+
+    public int getPreviousSize() {
+        return previousEntries.size();
+    }
+
+    public void record(SyncStateEntry entry) {
+        currentEntries.put(entry.getSourceId(), entry);
+    }
+
+    /**
+     * Keeps an entry of the previous run for an item which is not checked in this run. If the item is moved out of an
+     * unchanged folder and synced in its new place, the entry recorded there wins.
+     */
+    public void carryForward(SyncStateEntry entry) {
+        currentEntries.putIfAbsent(entry.getSourceId(), entry);
+    }
+
+    /**
+     * Writes the items of the current run. The file is replaced in one step, so the previous state survives a crash while writing.
+     */
+    public void save(Path filePath, String sourceFolderId, String targetFolderId) {
+        Path tempFilePath = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+        Map<String, String> header = new LinkedHashMap<>();
+        header.put("sourceFolderId", sourceFolderId);
+        header.put("targetFolderId", targetFolderId);
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFilePath, StandardCharsets.UTF_8)) {
+            writer.write(Utils.convertToJsonString(header));
+            writer.newLine();
+            for (SyncStateEntry entry : currentEntries.values()) {
+                writer.write(Utils.convertToJsonString(entry));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getCurrentSize() {
+        return currentEntries.size();
+    }
+}
@@ -0,0 +1,93 @@
+package com.eoral.copyboxfolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * State of a source item as it was synced: where it was in the source, what its content was, and which target item it went to.
+ */
+public class SyncStateEntry {
+
+    private final BoxItemType type;
+    private final String sourceId;
+    private final String sourceParentId;
+    private final String name;
+    private final long size;
+    private final String etag;
+    private final String sha1;
+    private final String modifiedAt;
+    private final String targetId;
+    private final String targetParentId;
+
+    public SyncStateEntry(BoxItemType type, String sourceId, String sourceParentId, String name, long size,
+                          String etag, String sha1, String modifiedAt, String targetId, String targetParentId) {
+        this.type = type;
+        this.sourceId = sourceId;
+        this.sourceParentId = sourceParentId;
+        this.name = name;
+        this.size = size;
+        this.etag = etag;
+        this.sha1 = sha1;
+        this.modifiedAt = modifiedAt;
+        this.targetId = targetId;
+        this.targetParentId = targetParentId;
+    }
+
+    public static SyncStateEntry of(StorageItem sourceItem, String sourceParentId, String targetId, String targetParentId) {
+        return new SyncStateEntry(sourceItem.getType(), sourceItem.getId(), sourceParentId, sourceItem.getName(),
+                sourceItem.getSize(), sourceItem.getEtag(), sourceItem.getSha1(), sourceItem.getModifiedAt(), targetId, targetParentId);
+    }
+
+    static SyncStateEntry fromJson(JsonNode jsonNode) {
+        return new SyncStateEntry(
+                BoxItemType.valueOf(jsonNode.get("type").textValue()),
+                jsonNode.get("sourceId").textValue(),
+                jsonNode.get("sourceParentId").textValue(),
+                jsonNode.get("name").textValue(),
+                jsonNode.get("size").longValue(),
+                jsonNode.get("etag").textValue(),
+                jsonNode.get("sha1").textValue(),
+                jsonNode.get("modifiedAt").textValue(),
+                jsonNode.get("targetId").textValue(),
+                jsonNode.get("targetParentId").textValue());
+    }
+
+    public BoxItemType getType() {
+        return type;
+    }
+
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    public String getSourceParentId() {
+        return sourceParentId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    public String getModifiedAt() {
+        return modifiedAt;
+    }
+
+    public String getTargetId() {
+        return targetId;
+    }
+
+    public String getTargetParentId() {
+        return targetParentId;
+    }
+}
@@ -0,0 +1,145 @@
+package com.eoral.copyboxfolder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lists the children of a target folder once and answers existence checks for that folder from memory,
+ * instead of one canUpload/createFolder round trip per item.
+ * Only the most recently used folders are kept. An evicted folder is listed again when it is needed.
+ * The cache is only a hint. When a name is not found, the caller still has to handle 409 (item_name_in_use)
+ * because an item may be created after the folder is listed.
+ */
+public class TargetFolderListingCache {
+
+    private final FolderLister folderLister;
+    private final Map<String, FolderListing> folderListings;
+
+    public TargetFolderListingCache(FolderLister folderLister, int maxFolders) {
+        this.folderLister = folderLister;
+        this.folderListings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FolderListing> eldest) {
+                return size() > maxFolders;
+            }
+        };
+    }
+
+    /**
+     * Returns the id of the child with the given type and name, or null if the folder has no such child.
+     * The folder is listed on first use, other threads asking for the same folder wait for that listing.
+     * If the listing fails, the threads waiting for it fail too, and the folder is listed again on next use.
+     */
+    public String findId(String folderId, BoxItemType type, String name) {
+        ListedItem listedItem = find(folderId, type, name);
+        return listedItem == null ? null : listedItem.getId();
+    }
+
+    /**
+     * Same as findId, but also returns the sha1 of a file as it was when the folder was listed.
+     */
+    public ListedItem find(String folderId, BoxItemType type, String name) {
+        return getFolderListing(folderId).getItems().get(createKey(type, name));
+    }
+
+    /**
+     * Tells the cache that a folder has just been created, so it doesn't need to be listed.
+     */
+    public void putEmptyFolder(String folderId) {
+        FolderListing folderListing = new FolderListing(folderId);
+        folderListing.loadStarted.set(true);
+        folderListing.items.complete(Collections.emptyMap());
+        synchronized (folderListings) {
+            folderListings.put(folderId, folderListing);
+        }
+    }
+
+    private FolderListing getFolderListing(String folderId) {
+        synchronized (folderListings) {
+            return folderListings.computeIfAbsent(folderId, FolderListing::new);
+        }
+    }
+
+    private void evict(FolderListing folderListing) {
+        synchronized (folderListings) {
+            folderListings.remove(folderListing.folderId, folderListing);
+        }
+    }
+
+    private static String createKey(BoxItemType type, String name) {
+        return type + "/" + name;
+    }
+
+    /**
+     * The first thread to need the items lists the folder without holding any monitor, others wait for the future.
+     * A monitor held during the listing would pin the carrier threads of virtual threads waiting for it.
+     */
+    private class FolderListing {
+
+        private final String folderId;
+        private final AtomicBoolean loadStarted = new AtomicBoolean(false);
+        private final CompletableFuture<Map<String, ListedItem>> items = new CompletableFuture<>();
+
+        FolderListing(String folderId) {
+            this.folderId = folderId;
+        }
+
+        Map<String, ListedItem> getItems() {
+            if (loadStarted.compareAndSet(false, true)) {
+                try {
+                    items.complete(load());
+                } catch (RuntimeException | Error e) {
+                    evict(this);
+                    items.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            try {
+                return items.join();
+            } catch (CompletionException e) {
+                // Same exception as the listing thread got, e.g. a BoxAPIException callers handle.
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        private Map<String, ListedItem> load() {
+            Map<String, ListedItem> loadedItems = new HashMap<>();
+            try (FolderLister.Listing listing = folderLister.list(folderId)) {
+                for (StorageItem item : listing) {
+                    loadedItems.put(createKey(item.getType(), item.getName()), new ListedItem(item.getId(), item.getSha1()));
+                }
+            }
+            return Collections.unmodifiableMap(loadedItems);
+        }
+    }
+
+    public static class ListedItem {
+
+        private final String id;
+        private final String sha1;
+
+        ListedItem(String id, String sha1) {
+            this.id = id;
+            this.sha1 = sha1;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Null for folders.
+         */
+        public String getSha1() {
+            return sha1;
+        }
+    }
+}
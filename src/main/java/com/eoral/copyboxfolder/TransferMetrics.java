@@ -0,0 +1,346 @@
+package com.eoral.copyboxfolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, latency histograms and gauges of a run. Everything recorded from copy threads is a LongAdder,
+ * so recording doesn't add contention on the hot path. Values are read only when they are reported.
+ */
+public class TransferMetrics {
+
+    private static final String PREFIX = "copy_box_folder_";
+
+    private final LongAdder discoveredFiles = new LongAdder();
+    private final LongAdder discoveredFolders = new LongAdder();
+    private final LongAdder discoveredBytes = new LongAdder();
+    private final LongAdder completedFiles = new LongAdder();
+    private final LongAdder completedFolders = new LongAdder();
+    private final LongAdder completedBytes = new LongAdder();
+    private final LongAdder skippedFiles = new LongAdder();
+    private final LongAdder failedFiles = new LongAdder();
+    private final LongAdder downloadedBytes = new LongAdder();
+    private final LongAdder uploadedBytes = new LongAdder();
+    private final LongAdder transferRetries = new LongAdder();
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, ConnectionMetrics> connections = new LinkedHashMap<>();
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+
+    public void fileDiscovered(long size) {
+        discoveredFiles.increment();
+        discoveredBytes.add(size);
+    }
+
+    public void folderDiscovered() {
+        discoveredFolders.increment();
+    }
+
+    /**
+     * Called when a file is copied, or found in the target or in the journal.
+     */
+    public void fileCompleted(long size) {
+        completedFiles.increment();
+        completedBytes.add(size);
+    }
+
+    public void folderCompleted() {
+        completedFolders.increment();
+    }
+
+    /**
+     * A file with the same name already exists in the target and it is kept, nothing is transferred.
+     */
+    public void fileSkipped() {
+        skippedFiles.increment();
+    }
+
+    public void fileFailed() {
+        failedFiles.increment();
+    }
+
+    /**
+     * A whole file transfer restarted after throttling, or a part of a large file retried.
+     */
+    public void transferRetried() {
+        transferRetries.increment();
+    }
+
+    /**
+     * Counter for CountingOutputStream wrapping download targets.
+     */
+    public LongAdder getDownloadedBytesCounter() {
+        return downloadedBytes;
+    }
+
+    /**
+     * Counter for CountingInputStream wrapping upload sources.
+     */
+    public LongAdder getUploadedBytesCounter() {
+        return uploadedBytes;
+    }
+
+    public long getDiscoveredFiles() {
+        return discoveredFiles.sum();
+    }
+
+    public long getDiscoveredFolders() {
+        return discoveredFolders.sum();
+    }
+
+    public long getDiscoveredBytes() {
+        return discoveredBytes.sum();
+    }
+
+    public long getCompletedFiles() {
+        return completedFiles.sum();
+    }
+
+    public long getCompletedFolders() {
+        return completedFolders.sum();
+    }
+
+    public long getCompletedBytes() {
+        return completedBytes.sum();
+    }
+
+    public long getSkippedFiles() {
+        return skippedFiles.sum();
+    }
+
+    public long getFailedFiles() {
+        return failedFiles.sum();
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.sum();
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes.sum();
+    }
+
+    /**
+     * Should be called during initialization, before copy threads start.
+     */
+    public synchronized ConnectionMetrics connection(String name) {
+        return connections.computeIfAbsent(name, ConnectionMetrics::new);
+    }
+
+    /**
+     * Registers a value which is read when metrics are reported, e.g. a queue depth. Name is without the prefix.
+     */
+    public synchronized void registerGauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    public synchronized Iterable<ConnectionMetrics> getConnections() {
+        return connections.values();
+    }
+
+    /**
+     * Writes all metrics in Prometheus text format. The file is replaced in one step, so a reader never sees a partial file.
+     */
+    public void writePrometheusFile(Path filePath) {
+        Path tempFilePath = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+        try {
+            Files.write(tempFilePath, toPrometheusText().getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized String toPrometheusText() {
+        StringBuilder sb = new StringBuilder();
+        appendCounter(sb, "discovered_files_total", discoveredFiles);
+        appendCounter(sb, "discovered_folders_total", discoveredFolders);
+        appendCounter(sb, "discovered_bytes_total", discoveredBytes);
+        appendCounter(sb, "completed_files_total", completedFiles);
+        appendCounter(sb, "completed_folders_total", completedFolders);
+        appendCounter(sb, "completed_bytes_total", completedBytes);
+        appendCounter(sb, "skipped_files_total", skippedFiles);
+        appendCounter(sb, "failed_files_total", failedFiles);
+        appendCounter(sb, "downloaded_bytes_total", downloadedBytes);
+        appendCounter(sb, "uploaded_bytes_total", uploadedBytes);
+        appendCounter(sb, "transfer_retries_total", transferRetries);
+        appendSample(sb, "elapsed_seconds", "gauge", String.format(Locale.ROOT, "%.3f", getElapsedNanos() / 1e9));
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            appendSample(sb, gauge.getKey(), "gauge", Long.toString(gauge.getValue().getAsLong()));
+        }
+        appendConnectionMetrics(sb);
+        return sb.toString();
+    }
+
+    private void appendConnectionMetrics(StringBuilder sb) {
+        sb.append("# TYPE ").append(PREFIX).append("api_calls_total counter\n");
+        for (ConnectionMetrics connection : connections.values()) {
+            for (Map.Entry<BoxOperation, OperationMetrics> entry : connection.operations.entrySet()) {
+                appendLabeled(sb, "api_calls_total", connection.name, entry.getKey(), null, entry.getValue().calls.sum());
+            }
+        }
+        sb.append("# TYPE ").append(PREFIX).append("api_errors_total counter\n");
+        for (ConnectionMetrics connection : connections.values()) {
+            for (Map.Entry<BoxOperation, OperationMetrics> entry : connection.operations.entrySet()) {
+                appendLabeled(sb, "api_errors_total", connection.name, entry.getKey(), null, entry.getValue().errors.sum());
+            }
+        }
+        sb.append("# TYPE ").append(PREFIX).append("api_latency_seconds histogram\n");
+        long[] upperBoundsMillis = LatencyHistogram.getBucketUpperBoundsMillis();
+        for (ConnectionMetrics connection : connections.values()) {
+            for (Map.Entry<BoxOperation, OperationMetrics> entry : connection.operations.entrySet()) {
+                LatencyHistogram latency = entry.getValue().latency;
+                long[] cumulativeCounts = latency.getCumulativeCounts();
+                for (int i = 0; i < cumulativeCounts.length; i++) {
+                    String le = i < upperBoundsMillis.length
+                            ? String.format(Locale.ROOT, "%.3f", upperBoundsMillis[i] / 1000.0) : "+Inf";
+                    appendLabeled(sb, "api_latency_seconds_bucket", connection.name, entry.getKey(), le, cumulativeCounts[i]);
+                }
+                sb.append(PREFIX).append("api_latency_seconds_sum").append(labels(connection.name, entry.getKey(), null))
+                        .append(' ').append(String.format(Locale.ROOT, "%.6f", latency.getSumSeconds())).append('\n');
+                appendLabeled(sb, "api_latency_seconds_count", connection.name, entry.getKey(), null, latency.getCount());
+            }
+        }
+        sb.append("# TYPE ").append(PREFIX).append("api_retries_total counter\n");
+        for (ConnectionMetrics connection : connections.values()) {
+            // Retries made inside the SDK are not known, a missing series is better than a misleading 0.
+            if (connection.countedByClient) {
+                continue;
+            }
+            sb.append(PREFIX).append("api_retries_total{connection=\"").append(connection.name).append("\"} ")
+                    .append(connection.retries.sum()).append('\n');
+        }
+        sb.append("# TYPE ").append(PREFIX).append("api_throttled_total counter\n");
+        for (ConnectionMetrics connection : connections.values()) {
+            sb.append(PREFIX).append("api_throttled_total{connection=\"").append(connection.name).append("\",status=\"429\"} ")
+                    .append(connection.rateLimited.sum()).append('\n');
+            sb.append(PREFIX).append("api_throttled_total{connection=\"").append(connection.name).append("\",status=\"5xx\"} ")
+                    .append(connection.serverErrors.sum()).append('\n');
+        }
+    }
+
+    private static void appendCounter(StringBuilder sb, String name, LongAdder counter) {
+        appendSample(sb, name, "counter", Long.toString(counter.sum()));
+    }
+
+    private static void appendSample(StringBuilder sb, String name, String type, String value) {
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+        sb.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendLabeled(StringBuilder sb, String name, String connection, BoxOperation operation, String le, long value) {
+        sb.append(PREFIX).append(name).append(labels(connection, operation, le)).append(' ').append(value).append('\n');
+    }
+
+    private static String labels(String connection, BoxOperation operation, String le) {
+        return "{connection=\"" + connection + "\",operation=\"" + operation.name().toLowerCase(Locale.ROOT) + "\""
+                + (le == null ? "" : ",le=\"" + le + "\"") + "}";
+    }
+
+    /**
+     * Metrics of the api calls made through one Box connection.
+     */
+    public static class ConnectionMetrics {
+
+        private final String name;
+        private final Map<BoxOperation, OperationMetrics> operations = new EnumMap<>(BoxOperation.class);
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder rateLimited = new LongAdder();
+        private final LongAdder serverErrors = new LongAdder();
+        private volatile boolean countedByClient = false;
+
+        ConnectionMetrics(String name) {
+            this.name = name;
+            for (BoxOperation operation : BoxOperation.values()) {
+                operations.put(operation, new OperationMetrics());
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public OperationMetrics operation(BoxOperation operation) {
+            return operations.get(operation);
+        }
+
+        public void retried() {
+            retries.increment();
+        }
+
+        /**
+         * Counts a 429 or 5xx response.
+         */
+        public void throttled(int responseCode) {
+            if (responseCode == 429) {
+                rateLimited.increment();
+            } else {
+                serverErrors.increment();
+            }
+        }
+
+        public long getRateLimited() {
+            return rateLimited.sum();
+        }
+
+        public long getServerErrors() {
+            return serverErrors.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        /**
+         * Marks that the client (the Box SDK) retries throttled calls itself and counts each throttled response here,
+         * retried ones included. Its retries are not known, and calls failing after them are not counted again.
+         */
+        public void countedByClient() {
+            countedByClient = true;
+        }
+
+        public boolean isCountedByClient() {
+            return countedByClient;
+        }
+    }
+
+    public static class OperationMetrics {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        /**
+         * Records a single attempt of the call.
+         */
+        public void record(long nanos, boolean failed) {
+            calls.increment();
+            if (failed) {
+                errors.increment();
+            }
+            latency.record(nanos);
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.eoral.copyboxfolder;
+
+public enum TransferMode {
+    /**
+     * Small files are buffered in memory, large files are written to a temp file before uploading.
+     */
+    MEMORY_OR_TEMP_FILE,
+    /**
+     * Downloaded bytes are piped to the upload through a bounded buffer, download and upload run at the same time.
+     */
+    STREAM
+}
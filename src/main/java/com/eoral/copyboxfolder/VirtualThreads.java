@@ -0,0 +1,43 @@
+package com.eoral.copyboxfolder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads without requiring Java 21 at compile time.
+ * The application is built for Java 11 by default, virtual threads are only available when it runs on Java 21 or later.
+ */
+public class VirtualThreads {
+
+    private VirtualThreads() {}
+
+    public static boolean isSupported() {
+        return findFactoryMethod() != null;
+    }
+
+    /**
+     * Same as Executors.newVirtualThreadPerTaskExecutor() in Java 21.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        Method factoryMethod = findFactoryMethod();
+        if (factoryMethod == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later, current version is "
+                    + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) factoryMethod.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Method findFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
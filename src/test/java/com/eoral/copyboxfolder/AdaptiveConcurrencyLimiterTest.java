@@ -0,0 +1,155 @@
+package com.eoral.copyboxfolder;
+
+import com.box.sdk.BoxAPIException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private final TransferMetrics metrics = new TransferMetrics();
+
+    @Test
+    void pairedCallsDependingOnEachOtherComplete() throws Exception {
+        AdaptiveConcurrencyLimiter source = AdaptiveConcurrencyLimiter.adaptive("source", 1, 1, 1, 1, metrics.connection("source"));
+        AdaptiveConcurrencyLimiter target = AdaptiveConcurrencyLimiter.adaptive("target", 1, 1, 1, 1, metrics.connection("target"));
+        ExecutorService callers = Executors.newFixedThreadPool(5);
+        ExecutorService downloads = Executors.newFixedThreadPool(5);
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+                Future<?>[] futures = new Future<?>[20];
+                for (int i = 0; i < futures.length; i++) {
+                    futures[i] = callers.submit(() -> runPairedCall(source, target, downloads));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            });
+        } finally {
+            callers.shutdownNow();
+            downloads.shutdownNow();
+        }
+        assertEquals(0, source.getInFlight());
+        assertEquals(0, target.getInFlight());
+    }
+
+    /**
+     * Like a streaming copy: the second call can't finish before the first one, which runs on another thread.
+     */
+    private static void runPairedCall(AdaptiveConcurrencyLimiter source, AdaptiveConcurrencyLimiter target, ExecutorService downloads) {
+        AdaptiveConcurrencyLimiter.Permit[] permits = AdaptiveConcurrencyLimiter.acquireBoth(source, target);
+        CountDownLatch downloaded = new CountDownLatch(1);
+        Future<?> download = downloads.submit(() -> permits[0].execute(BoxOperation.DOWNLOAD, downloaded::countDown));
+        permits[1].execute(BoxOperation.UPLOAD, () -> {
+            try {
+                downloaded.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        // The download permit is released right after the latch, wait for it so in-flight counts are final.
+        try {
+            download.get();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void sameLimiterGivesBothPermitsAtOnce() {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.adaptive("both", 2, 2, 2, 1, metrics.connection("both"));
+
+        AdaptiveConcurrencyLimiter.Permit[] permits = AdaptiveConcurrencyLimiter.acquireBoth(limiter, limiter);
+        assertEquals(2, limiter.getInFlight());
+        permits[0].release();
+        permits[0].release();
+        assertEquals(1, limiter.getInFlight());
+        permits[1].execute(BoxOperation.UPLOAD, () -> { });
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void sameLimiterWhichMayDropToOneCantGiveBothPermits() {
+        AdaptiveConcurrencyLimiter shared = AdaptiveConcurrencyLimiter.adaptive("both", 4, 1, 4, 1, metrics.connection("both"));
+        AdaptiveConcurrencyLimiter other = AdaptiveConcurrencyLimiter.adaptive("other", 1, 1, 1, 1, metrics.connection("other"));
+
+        assertFalse(AdaptiveConcurrencyLimiter.canAcquireBoth(shared, shared));
+        assertTrue(AdaptiveConcurrencyLimiter.canAcquireBoth(shared, other));
+        assertTrue(AdaptiveConcurrencyLimiter.canAcquireBoth(
+                AdaptiveConcurrencyLimiter.unlimited("u", metrics.connection("u")), AdaptiveConcurrencyLimiter.unlimited("u", metrics.connection("u"))));
+    }
+
+    @Test
+    void transportFailureIsRetriedWithoutDecreasingLimit() {
+        TransferMetrics.ConnectionMetrics connection = metrics.connection("reset");
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.adaptive("reset", 4, 1, 4, 3, connection);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = limiter.execute(BoxOperation.LIST, true, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new BoxAPIException("Couldn't connect to the Box API due to a network error.", new IOException("Connection reset"));
+            }
+            return "listed";
+        });
+
+        assertEquals("listed", result);
+        assertEquals(2, attempts.get());
+        assertEquals(4, limiter.getLimit());
+        assertEquals(1, connection.getRetries());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void transportFailureOfNonRetryableCallIsThrown() {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.adaptive("reset", 4, 1, 4, 3, metrics.connection("reset"));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(BoxAPIException.class, () -> limiter.execute(BoxOperation.UPLOAD, false, () -> {
+            attempts.incrementAndGet();
+            throw new BoxAPIException("Read timed out", new IOException("timeout"));
+        }));
+        assertEquals(1, attempts.get());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void limitWaitsForReleasedPermit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.adaptive("one", 1, 1, 1, 1, metrics.connection("one"));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = executor.submit(() -> limiter.execute(BoxOperation.LIST, true, () -> {
+                started.countDown();
+                try {
+                    finish.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<?> second = executor.submit(() -> limiter.execute(BoxOperation.LIST, true, () -> { }));
+            Thread.sleep(200);
+            assertFalse(second.isDone());
+            finish.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, limiter.getInFlight());
+    }
+}
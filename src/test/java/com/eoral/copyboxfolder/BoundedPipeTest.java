@@ -0,0 +1,84 @@
+package com.eoral.copyboxfolder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BoundedPipeTest {
+
+    @Test
+    void transfersMoreThanBufferSize() throws Exception {
+        byte[] content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        BoundedPipe pipe = new BoundedPipe(1000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> {
+                try (OutputStream outputStream = pipe.getOutputStream()) {
+                    for (int off = 0; off < content.length; off += 777) {
+                        outputStream.write(content, off, Math.min(777, content.length - off));
+                    }
+                }
+                return null;
+            });
+            byte[] read;
+            try (InputStream inputStream = pipe.getInputStream()) {
+                read = inputStream.readAllBytes();
+            }
+            writer.get(5, TimeUnit.SECONDS);
+            assertArrayEquals(content, read);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void writerFailureIsReportedToReaderAfterWrittenBytes() throws IOException {
+        BoundedPipe pipe = new BoundedPipe(16);
+        pipe.getOutputStream().write(new byte[] {1, 2, 3});
+        IOException failure = new IOException("Download failed");
+        pipe.fail(failure);
+
+        InputStream inputStream = pipe.getInputStream();
+        assertEquals(3, inputStream.read(new byte[16], 0, 16));
+        IOException thrown = assertThrows(IOException.class, inputStream::read);
+        assertSame(failure, thrown.getCause());
+    }
+
+    @Test
+    void blockedWriterFailsWhenReaderCloses() throws Exception {
+        BoundedPipe pipe = new BoundedPipe(4);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> {
+                pipe.getOutputStream().write(new byte[10]);
+                return null;
+            });
+            Thread.sleep(100);
+            assertFalse(writer.isDone());
+            pipe.getInputStream().close();
+            Exception thrown = assertThrows(Exception.class, () -> writer.get(5, TimeUnit.SECONDS));
+            assertEquals(IOException.class, thrown.getCause().getClass());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void rejectsEmptyBuffer() {
+        assertThrows(IllegalArgumentException.class, () -> new BoundedPipe(0));
+    }
+}
@@ -0,0 +1,154 @@
+package com.eoral.copyboxfolder;
+
+import com.box.sdk.BoxAPIException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Files with the same name but different content in the target, against the local backend.
+ */
+class ChangedFilePolicyTest {
+
+    private static final byte[] SOURCE_CONTENT = "source content".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TARGET_CONTENT = "older target content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path workDirectory;
+
+    private Path rootDirectory;
+    private Path targetFolder;
+    private String originalUserHome;
+
+    @BeforeEach
+    void createFolders() throws IOException {
+        rootDirectory = Files.createDirectory(workDirectory.resolve("storage"));
+        Path sourceFolder = Files.createDirectory(rootDirectory.resolve("source"));
+        targetFolder = Files.createDirectory(rootDirectory.resolve("target"));
+        Files.write(sourceFolder.resolve("file.txt"), SOURCE_CONTENT);
+        Files.write(targetFolder.resolve("file.txt"), TARGET_CONTENT);
+        // Output, journal and metrics files are written to the user home directory.
+        originalUserHome = System.getProperty("user.home");
+        System.setProperty("user.home", workDirectory.toString());
+    }
+
+    @AfterEach
+    void restoreUserHome() {
+        System.setProperty("user.home", originalUserHome);
+    }
+
+    @Test
+    void replaceUploadsThenDeletesAndRenames() throws IOException {
+        App app = new App();
+
+        app.run(createProperties("REPLACE"), createBackend(), createBackend());
+
+        assertEquals(1, app.getMetrics().getCompletedFiles());
+        assertEquals(0, app.getMetrics().getFailedFiles());
+        assertEquals(new String(SOURCE_CONTENT, StandardCharsets.UTF_8), readTargetFile("file.txt"));
+        assertEquals("[file.txt]", listTargetFolder());
+    }
+
+    /**
+     * The target file used to be deleted before the upload, a failing upload lost it.
+     */
+    @Test
+    void replaceKeepsTargetFileWhenUploadFails() throws IOException {
+        App app = new App();
+        LocalStorageBackend failingTarget = new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none()) {
+            @Override
+            public StorageItem uploadFile(String parentFolderId, String name, InputStream content, String sha1) {
+                throw new BoxAPIException("Upload failed", 500, "");
+            }
+        };
+
+        app.run(createProperties("REPLACE"), createBackend(), failingTarget);
+
+        assertEquals(1, app.getMetrics().getFailedFiles());
+        assertEquals(new String(TARGET_CONTENT, StandardCharsets.UTF_8), readTargetFile("file.txt"));
+        assertEquals("[file.txt]", listTargetFolder());
+    }
+
+    @Test
+    void keepExistingLeavesTargetFile() throws IOException {
+        App app = new App();
+
+        app.run(createProperties("KEEP_EXISTING"), createBackend(), createBackend());
+
+        assertEquals(1, app.getMetrics().getSkippedFiles());
+        assertEquals(new String(TARGET_CONTENT, StandardCharsets.UTF_8), readTargetFile("file.txt"));
+    }
+
+    /**
+     * A folder has no sha1, its id used to be looked up as a file and failed with a 404.
+     */
+    @Test
+    void folderWithFileNameFailsFile() throws IOException {
+        Files.delete(targetFolder.resolve("file.txt"));
+        Files.createDirectory(targetFolder.resolve("file.txt"));
+        AtomicInteger getFileCalls = new AtomicInteger();
+        LocalStorageBackend target = new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none()) {
+            @Override
+            public StorageItem getFile(String fileId) {
+                getFileCalls.incrementAndGet();
+                return super.getFile(fileId);
+            }
+        };
+        for (String listingCacheEnabled : new String[] {"false", "true"}) {
+            App app = new App();
+            Properties properties = createProperties("REPLACE");
+            properties.setProperty("targetListingCacheEnabled", listingCacheEnabled);
+
+            app.run(properties, createBackend(), target);
+
+            assertEquals(1, app.getMetrics().getFailedFiles());
+            assertTrue(Files.isDirectory(targetFolder.resolve("file.txt")));
+        }
+        assertEquals(0, getFileCalls.get());
+    }
+
+    private LocalStorageBackend createBackend() {
+        return new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none());
+    }
+
+    private String readTargetFile(String name) throws IOException {
+        return new String(Files.readAllBytes(targetFolder.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    private String listTargetFolder() throws IOException {
+        try (Stream<Path> items = Files.list(targetFolder)) {
+            return items.map(item -> item.getFileName().toString()).sorted().collect(Collectors.toList()).toString();
+        }
+    }
+
+    private Properties createProperties(String changedFilePolicy) {
+        Properties properties = new Properties();
+        try (InputStream inputStream = App.class.getResourceAsStream("/app.properties")) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        properties.setProperty("storageBackend", "LOCAL");
+        properties.setProperty("sourceFolderId", "source");
+        properties.setProperty("targetFolderId", "target");
+        properties.setProperty("changedFilePolicy", changedFilePolicy);
+        properties.setProperty("resume", "false");
+        properties.setProperty("pipelineStatsIntervalInSeconds", "3600");
+        return properties;
+    }
+}
@@ -0,0 +1,111 @@
+package com.eoral.copyboxfolder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckpointJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void loadsMappingsRecordedForSameFolders() {
+        Path journalFilePath = directory.resolve("journal.jsonl");
+        try (CheckpointJournal journal = new CheckpointJournal(journalFilePath, false, "s", "t")) {
+            journal.record(new BoxItemMapping(BoxItemType.FOLDER, "1", "101"));
+            journal.record(new BoxItemMapping(BoxItemType.FILE, "2", "102"));
+        }
+        try (CheckpointJournal journal = new CheckpointJournal(journalFilePath, true, "s", "t")) {
+            journal.record(new BoxItemMapping(BoxItemType.FILE, "3", "103"));
+        }
+
+        Map<String, BoxItemMapping> index = CheckpointJournal.load(journalFilePath, "s", "t");
+
+        assertEquals(3, index.size());
+        assertEquals("102", index.get("2").getTargetId());
+        assertEquals(BoxItemType.FILE, index.get("3").getType());
+    }
+
+    @Test
+    void rejectsJournalOfOtherFolders() {
+        Path journalFilePath = directory.resolve("journal.jsonl");
+        try (CheckpointJournal journal = new CheckpointJournal(journalFilePath, false, "s", "t")) {
+            journal.record(new BoxItemMapping(BoxItemType.FILE, "2", "102"));
+        }
+
+        assertThrows(IllegalStateException.class, () -> CheckpointJournal.load(journalFilePath, "s", "other"));
+        assertThrows(IllegalStateException.class, () -> CheckpointJournal.load(journalFilePath, "other", "t"));
+    }
+
+    @Test
+    void rejectsJournalWithoutHeader() throws IOException {
+        Path journalFilePath = directory.resolve("journal.jsonl");
+        Files.write(journalFilePath, "{\"type\":\"FILE\",\"sourceId\":\"2\",\"targetId\":\"102\"}\n".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalStateException.class, () -> CheckpointJournal.load(journalFilePath, "s", "t"));
+    }
+
+    @Test
+    void ignoresIncompleteLastLine() throws IOException {
+        Path journalFilePath = directory.resolve("journal.jsonl");
+        try (CheckpointJournal journal = new CheckpointJournal(journalFilePath, false, "s", "t")) {
+            journal.record(new BoxItemMapping(BoxItemType.FILE, "2", "102"));
+        }
+        Files.write(journalFilePath, "{\"type\":\"FILE\",\"sour".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        Map<String, BoxItemMapping> index = CheckpointJournal.load(journalFilePath, "s", "t");
+
+        assertEquals(1, index.size());
+        assertTrue(index.containsKey("2"));
+    }
+
+    @Test
+    void concurrentRecordsAreWrittenAsWholeLines() throws Exception {
+        Path journalFilePath = directory.resolve("journal.jsonl");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (CheckpointJournal journal = new CheckpointJournal(journalFilePath, false, "s", "t")) {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                int writer = i;
+                writers.add(executor.submit(() -> {
+                    for (int j = 0; j < 250; j++) {
+                        journal.record(new BoxItemMapping(BoxItemType.FILE, writer + "-" + j, "target-" + writer + "-" + j));
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, BoxItemMapping> index = CheckpointJournal.load(journalFilePath, "s", "t");
+
+        assertEquals(8 * 250, index.size());
+        assertEquals("target-7-249", index.get("7-249").getTargetId());
+    }
+
+    @Test
+    void missingOrEmptyJournalIsEmptyIndex() throws IOException {
+        assertTrue(CheckpointJournal.load(directory.resolve("missing.jsonl"), "s", "t").isEmpty());
+        Path emptyFilePath = Files.createFile(directory.resolve("empty.jsonl"));
+        assertTrue(CheckpointJournal.load(emptyFilePath, "s", "t").isEmpty());
+    }
+}
@@ -0,0 +1,128 @@
+package com.eoral.copyboxfolder;
+
+import com.box.sdk.BoxAPIException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Chunked copies against the local backend, whose upload sessions have 8 MB parts.
+ */
+class LargeFileTransferTest {
+
+    private static final int FILE_SIZE = 3 * 8 * 1024 * 1024 + 12345;
+
+    @TempDir
+    Path rootDirectory;
+
+    private byte[] content;
+    private String contentSha1;
+    private ExecutorService partExecutor;
+    private final TransferMetrics metrics = new TransferMetrics();
+
+    @BeforeEach
+    void createSourceFile() throws IOException {
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        Files.write(Files.createDirectory(rootDirectory.resolve("source")).resolve("large.bin"), content);
+        Files.createDirectory(rootDirectory.resolve("target"));
+        contentSha1 = Utils.toHex(Utils.createSha1Digest().digest(content));
+        partExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void shutdownPartExecutor() {
+        partExecutor.shutdownNow();
+    }
+
+    /**
+     * The first part is downloaded last, the others wait for it before adding themselves to the file digest.
+     */
+    @Test
+    void partsFinishingOutOfOrderAddUpToSourceSha1() throws IOException {
+        LocalStorageBackend source = new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none()) {
+            @Override
+            public void downloadRange(String fileId, OutputStream outputStream, long rangeStart, long rangeEnd) {
+                if (rangeStart == 0) {
+                    sleep(300);
+                }
+                super.downloadRange(fileId, outputStream, rangeStart, rangeEnd);
+            }
+        };
+
+        StorageItem uploadedFile = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> createTransfer(1).transfer(
+                source, "source/large.bin", FILE_SIZE, contentSha1, createBackend(), FileUploadTarget.newFile("target", "large.bin")));
+
+        assertEquals(contentSha1, uploadedFile.getSha1());
+        assertArrayEquals(content, Files.readAllBytes(rootDirectory.resolve("target/large.bin")));
+    }
+
+    /**
+     * Parts waiting for their digest turn are woken by the failed part, instead of waiting forever.
+     */
+    @Test
+    void failedPartFailsTransferWithoutWaitingParts() {
+        LocalStorageBackend source = new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none()) {
+            @Override
+            public void downloadRange(String fileId, OutputStream outputStream, long rangeStart, long rangeEnd) {
+                if (rangeStart == 0) {
+                    sleep(300);
+                    throw new BoxAPIException("Not found", 404, "");
+                }
+                super.downloadRange(fileId, outputStream, rangeStart, rangeEnd);
+            }
+        };
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertThrows(RuntimeException.class, () -> createTransfer(1).transfer(
+                source, "source/large.bin", FILE_SIZE, contentSha1, createBackend(), FileUploadTarget.newFile("target", "large.bin"))));
+
+        assertFalse(Files.exists(rootDirectory.resolve("target/large.bin")));
+    }
+
+    @Test
+    void sessionIsAbortedWhenPartsDontMatchSourceSha1() {
+        String otherSha1 = Utils.toHex(Utils.createSha1Digest().digest(new byte[1]));
+
+        RuntimeException thrown = assertThrows(RuntimeException.class, () -> createTransfer(1).transfer(
+                createBackend(), "source/large.bin", FILE_SIZE, otherSha1, createBackend(), FileUploadTarget.newFile("target", "large.bin")));
+
+        assertTrue(thrown.getMessage().contains(otherSha1));
+        assertFalse(Files.exists(rootDirectory.resolve("target/large.bin")));
+    }
+
+    private LargeFileTransfer createTransfer(int partMaxAttempts) {
+        return new LargeFileTransfer(partExecutor, 4, partMaxAttempts,
+                AdaptiveConcurrencyLimiter.unlimited("source", metrics.connection("source")),
+                AdaptiveConcurrencyLimiter.unlimited("target", metrics.connection("target")),
+                new MemoryBudget(256L * 1024 * 1024), new BufferPool(1024 * 1024, 64), metrics);
+    }
+
+    private LocalStorageBackend createBackend() {
+        return new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
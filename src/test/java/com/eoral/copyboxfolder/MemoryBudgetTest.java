@@ -0,0 +1,76 @@
+package com.eoral.copyboxfolder;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryBudgetTest {
+
+    @Test
+    void tryReserveFailsWhenBudgetIsUsed() {
+        MemoryBudget budget = new MemoryBudget(100);
+
+        assertTrue(budget.tryReserve(60));
+        assertFalse(budget.tryReserve(50));
+        budget.release(60);
+        assertTrue(budget.tryReserve(100));
+        assertEquals(100, budget.getReservedInBytes());
+    }
+
+    @Test
+    void reserveWaitsForRelease() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        budget.tryReserve(80);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> reservation = executor.submit(() -> budget.reserve(50));
+            Thread.sleep(200);
+            assertFalse(reservation.isDone());
+            budget.release(80);
+            assertEquals(50, reservation.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(50, budget.getReservedInBytes());
+    }
+
+    @Test
+    void reserveLargerThanBudgetGetsWholeBudget() throws InterruptedException {
+        MemoryBudget budget = new MemoryBudget(100);
+
+        assertEquals(100, budget.reserve(500));
+        budget.release(100);
+        assertEquals(0, budget.getReservedInBytes());
+    }
+
+    @Test
+    void manyWaitersNeverExceedBudget() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            Future<?>[] futures = new Future<?>[200];
+            for (int i = 0; i < futures.length; i++) {
+                long bytes = 100 + (i % 7) * 50;
+                futures[i] = executor.submit(() -> {
+                    long reserved = budget.reserve(bytes);
+                    assertTrue(budget.getReservedInBytes() <= 1000);
+                    budget.release(reserved);
+                    return null;
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, budget.getReservedInBytes());
+    }
+}
@@ -0,0 +1,149 @@
+package com.eoral.copyboxfolder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two workers on one shard directory, like two processes sharing a network directory.
+ */
+class ShardCoordinatorTest {
+
+    private static final long LEASE_EXPIRY_MILLIS = 200;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void workerWhoseLeaseExpiredCantCompleteTaskOfAnotherWorker() throws InterruptedException {
+        ShardCoordinator first = createWorker("first", 3);
+        ShardCoordinator second = createWorker("second", 3);
+        first.join("source", "target");
+        second.join("source", "target");
+        ShardCoordinator.Lease firstLease = first.claim();
+        assertNotNull(firstLease);
+
+        assertEquals(0, second.reclaimExpiredLeases());
+        Thread.sleep(LEASE_EXPIRY_MILLIS + 100);
+        assertEquals(1, second.reclaimExpiredLeases());
+        ShardCoordinator.Lease secondLease = second.claim();
+        assertNotNull(secondLease);
+
+        assertFalse(first.complete(firstLease));
+        assertFalse(first.isFinished());
+        assertFalse(second.isFinished());
+        assertTrue(second.complete(secondLease));
+        assertTrue(first.isFinished());
+    }
+
+    @Test
+    void workerWhoseLeaseExpiredCantFailTaskOfAnotherWorker() throws InterruptedException {
+        ShardCoordinator first = createWorker("first", 1);
+        ShardCoordinator second = createWorker("second", 1);
+        first.join("source", "target");
+        second.join("source", "target");
+        ShardCoordinator.Lease firstLease = first.claim();
+
+        second.reclaimExpiredLeases();
+        Thread.sleep(LEASE_EXPIRY_MILLIS + 100);
+        second.reclaimExpiredLeases();
+        ShardCoordinator.Lease secondLease = second.claim();
+        first.fail(firstLease, new RuntimeException("Lost"));
+
+        assertEquals(0, second.getNumberOfFailedTasks());
+        assertFalse(second.isFinished());
+        assertTrue(second.complete(secondLease));
+        assertTrue(second.isFinished());
+    }
+
+    @Test
+    void renewedLeaseIsNotReclaimed() throws InterruptedException {
+        ShardCoordinator first = createWorker("first", 3);
+        ShardCoordinator second = createWorker("second", 3);
+        first.join("source", "target");
+        second.join("source", "target");
+        ShardCoordinator.Lease lease = first.claim();
+
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(LEASE_EXPIRY_MILLIS / 2);
+            first.renewLeases();
+            assertEquals(0, second.reclaimExpiredLeases());
+        }
+        assertTrue(first.complete(lease));
+    }
+
+    /**
+     * Expiry used to compare file times with the local clock, a worker with a clock ahead took back live leases.
+     */
+    @Test
+    void leaseIsNotReclaimedByFileTime() throws IOException {
+        ShardCoordinator first = createWorker("first", 3);
+        ShardCoordinator second = createWorker("second", 3);
+        first.join("source", "target");
+        second.join("source", "target");
+        ShardCoordinator.Lease lease = first.claim();
+        try (Stream<Path> leaseFiles = Files.list(directory.resolve("leases"))) {
+            for (Path leaseFile : (Iterable<Path>) leaseFiles::iterator) {
+                Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(0));
+            }
+        }
+
+        assertEquals(0, second.reclaimExpiredLeases());
+        assertTrue(first.complete(lease));
+    }
+
+    @Test
+    void failedTaskIsRetriedThenMovedToFailed() {
+        ShardCoordinator first = createWorker("first", 2);
+        ShardCoordinator second = createWorker("second", 2);
+        first.join("source", "target");
+        second.join("source", "target");
+
+        first.fail(first.claim(), new RuntimeException("First"));
+        ShardCoordinator.Lease retry = second.claim();
+        assertNotNull(retry);
+        assertEquals(1, retry.getTask().getFailedAttempts());
+        assertFalse(first.isFinished());
+        second.fail(retry, new RuntimeException("Second"));
+
+        assertNull(first.claim());
+        assertEquals(1, first.getNumberOfFailedTasks());
+        assertTrue(first.isFinished());
+    }
+
+    @Test
+    void publishSkipsClaimedAndDoneTasks() {
+        ShardCoordinator first = createWorker("first", 3);
+        ShardCoordinator second = createWorker("second", 3);
+        first.join("source", "target");
+        second.join("source", "target");
+        ShardCoordinator.Lease root = first.claim();
+
+        second.publish(new ShardTask("source", "target"));
+        assertNull(second.claim());
+        first.publish(new ShardTask("source/sub", "target/sub"));
+        ShardCoordinator.Lease sub = second.claim();
+        assertEquals("source/sub", sub.getTask().getSourceFolderId());
+        assertTrue(first.complete(root));
+        assertTrue(second.complete(sub));
+
+        first.publish(new ShardTask("source/sub", "target/sub"));
+        assertNull(first.claim());
+        assertTrue(second.isFinished());
+    }
+
+    private ShardCoordinator createWorker(String workerId, int maxAttempts) {
+        return new ShardCoordinator(directory, workerId, LEASE_EXPIRY_MILLIS, maxAttempts);
+    }
+}
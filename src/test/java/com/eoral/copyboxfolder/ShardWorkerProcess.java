@@ -0,0 +1,30 @@
+package com.eoral.copyboxfolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * A worker process of {@link ShardedCopyTest}. Runs the copy with the default properties overridden by the given file.
+ */
+public class ShardWorkerProcess {
+
+    public static void main(String[] args) {
+        Properties properties = new Properties();
+        try (InputStream defaults = App.class.getResourceAsStream("/app.properties");
+             InputStream overrides = Files.newInputStream(Paths.get(args[0]))) {
+            properties.load(defaults);
+            properties.load(overrides);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Path rootDirectory = Paths.get(properties.getProperty("localStorageRootDirectory"));
+        new App().run(properties,
+                new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none()),
+                new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none()));
+    }
+}
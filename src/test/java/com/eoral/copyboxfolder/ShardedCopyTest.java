@@ -0,0 +1,163 @@
+package com.eoral.copyboxfolder;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Several worker processes copy one tree against the local backend, through one shard directory.
+ */
+class ShardedCopyTest {
+
+    private static final int NUMBER_OF_PROCESSES = 3;
+    private static final int NUMBER_OF_FOLDERS = 1 + 4 + 4 * 3;
+    private static final int NUMBER_OF_FILES = NUMBER_OF_FOLDERS * 2;
+
+    @TempDir
+    Path workDirectory;
+
+    private Path rootDirectory;
+    private Path shardDirectory;
+
+    @BeforeEach
+    void createSourceTree() throws IOException {
+        rootDirectory = Files.createDirectory(workDirectory.resolve("storage"));
+        shardDirectory = workDirectory.resolve("shard");
+        Path sourceFolder = Files.createDirectory(rootDirectory.resolve("source"));
+        Files.createDirectory(rootDirectory.resolve("target"));
+        Random random = new Random(42);
+        createFiles(sourceFolder, random);
+        for (int i = 0; i < 4; i++) {
+            Path folder = Files.createDirectory(sourceFolder.resolve("folder-" + i));
+            createFiles(folder, random);
+            for (int j = 0; j < 3; j++) {
+                createFiles(Files.createDirectory(folder.resolve("subfolder-" + j)), random);
+            }
+        }
+    }
+
+    private static void createFiles(Path folder, Random random) throws IOException {
+        for (int i = 0; i < 2; i++) {
+            byte[] content = new byte[1024 + random.nextInt(64 * 1024)];
+            random.nextBytes(content);
+            Files.write(folder.resolve("file-" + i + ".bin"), content);
+        }
+    }
+
+    /**
+     * A worker dies holding the root folder, so the others copy nothing until its lease expires and is taken back.
+     */
+    @Test
+    void workersCopyTreeAfterLeaseOfDeadWorkerExpires() throws Exception {
+        ShardCoordinator deadWorker = new ShardCoordinator(shardDirectory, "dead", TimeUnit.SECONDS.toMillis(2), 3);
+        deadWorker.join("source", "target");
+        ShardCoordinator.Lease deadLease = deadWorker.claim();
+
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_PROCESSES; i++) {
+            processes.add(startWorker("worker-" + i));
+        }
+        for (int i = 0; i < NUMBER_OF_PROCESSES; i++) {
+            Process process = processes.get(i);
+            if (!process.waitFor(120, TimeUnit.SECONDS)) {
+                processes.forEach(Process::destroyForcibly);
+                process.waitFor();
+            }
+            Path logFilePath = getLogFilePath("worker-" + i);
+            assertEquals(0, process.exitValue(), () -> readLog(logFilePath));
+        }
+
+        assertFalse(deadWorker.complete(deadLease));
+        assertTrue(deadWorker.isFinished());
+        assertEquals(NUMBER_OF_FOLDERS, countFiles(shardDirectory.resolve("done")));
+        assertEquals(0, deadWorker.getNumberOfFailedTasks());
+        assertSameTree(rootDirectory.resolve("source"), rootDirectory.resolve("target"));
+        List<Path> mergedOutputs = listMergedOutputs();
+        assertEquals(1, mergedOutputs.size());
+        assertEquals(NUMBER_OF_FOLDERS - 1 + NUMBER_OF_FILES, Files.readAllLines(mergedOutputs.get(0)).size());
+    }
+
+    private Process startWorker(String workerId) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("storageBackend", "LOCAL");
+        properties.setProperty("localStorageRootDirectory", rootDirectory.toString());
+        properties.setProperty("sourceFolderId", "source");
+        properties.setProperty("targetFolderId", "target");
+        properties.setProperty("shardDirectory", shardDirectory.toString());
+        properties.setProperty("shardWorkerId", workerId);
+        properties.setProperty("shardLeaseExpiryInSeconds", "2");
+        properties.setProperty("shardHeartbeatIntervalInSeconds", "1");
+        properties.setProperty("shardPollIntervalInMillis", "100");
+        properties.setProperty("outputFormat", "JSON_LINES");
+        properties.setProperty("resume", "false");
+        properties.setProperty("pipelineStatsIntervalInSeconds", "3600");
+        Path propertiesFilePath = workDirectory.resolve(workerId + ".properties");
+        try (Writer writer = Files.newBufferedWriter(propertiesFilePath, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ShardWorkerProcess.class.getName(), propertiesFilePath.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(getLogFilePath(workerId).toFile())
+                .start();
+    }
+
+    private Path getLogFilePath(String workerId) {
+        return workDirectory.resolve(workerId + ".log");
+    }
+
+    private static String readLog(Path logFilePath) {
+        try {
+            return new String(Files.readAllBytes(logFilePath), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private List<Path> listMergedOutputs() throws IOException {
+        try (Stream<Path> files = Files.list(shardDirectory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("copy-box-folder-output-"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void assertSameTree(Path sourceFolder, Path targetFolder) throws IOException {
+        try (Stream<Path> sourceItems = Files.walk(sourceFolder)) {
+            for (Path sourceItem : sourceItems.collect(Collectors.toList())) {
+                Path targetItem = targetFolder.resolve(sourceFolder.relativize(sourceItem));
+                if (Files.isDirectory(sourceItem)) {
+                    assertTrue(Files.isDirectory(targetItem), targetItem::toString);
+                } else {
+                    assertArrayEquals(Files.readAllBytes(sourceItem), Files.readAllBytes(targetItem), targetItem::toString);
+                }
+            }
+        }
+    }
+}
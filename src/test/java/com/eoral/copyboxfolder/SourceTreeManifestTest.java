@@ -0,0 +1,77 @@
+package com.eoral.copyboxfolder;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SourceTreeManifestTest {
+
+    @Test
+    void filesLargestFirstAreInSizeRange() {
+        SourceTreeManifest manifest = createManifest(1, 40, 10, 25, 5);
+
+        List<Long> sizes = manifest.getFilesLargestFirst(5, 40).stream()
+                .map(file -> file.getItem().getSize())
+                .collect(Collectors.toList());
+
+        assertEquals(List.of(25L, 10L, 5L), sizes);
+        assertEquals(5, manifest.getNumberOfFiles());
+        assertEquals(81, manifest.getTotalBytes());
+        assertEquals(40, manifest.getLargestFileSize());
+    }
+
+    /**
+     * A large file found last keeps one worker busy after the others are done, unless it is started first.
+     */
+    @Test
+    void largestFirstFinishesEarlierThanListingOrder() {
+        SourceTreeManifest manifest = createManifest(1, 1, 1, 1, 4);
+
+        double inListingOrder = SourceTreeManifest.estimateSeconds(manifest.getFilesInListingOrder(), 2, 1, 0, Long.MAX_VALUE, 1);
+        double largestFirst = SourceTreeManifest.estimateSeconds(manifest.getFilesLargestFirst(0, Long.MAX_VALUE), 2, 1, 0, Long.MAX_VALUE, 1);
+
+        assertEquals(6, inListingOrder, 1e-9);
+        assertEquals(4, largestFirst, 1e-9);
+    }
+
+    @Test
+    void largeFilesAreTransferredInParallelParts() {
+        SourceTreeManifest manifest = createManifest(8, 4);
+
+        double seconds = SourceTreeManifest.estimateSeconds(manifest.getFilesInListingOrder(), 1, 1, 0.5, 8, 4);
+
+        assertEquals(0.5 + 8 / 4.0 + 0.5 + 4, seconds, 1e-9);
+        assertEquals(0, SourceTreeManifest.estimateSeconds(List.of(), 1, 1, 0.5, 8, 4));
+    }
+
+    @Test
+    void unlistedFoldersAreKnown() {
+        SourceTreeManifest manifest = new SourceTreeManifest();
+        manifest.addFolder("root", folder("listed"));
+        manifest.addUnlistedFolder("root", folder("unchanged"));
+
+        assertTrue(manifest.isListed("listed"));
+        assertFalse(manifest.isListed("unchanged"));
+        assertEquals(2, manifest.getNumberOfFolders());
+        assertEquals(2, ((Collection<StorageItem>) manifest.getSubfolders("root")).size());
+        assertFalse(manifest.getSubfolders("listed").iterator().hasNext());
+    }
+
+    private static SourceTreeManifest createManifest(long... fileSizes) {
+        SourceTreeManifest manifest = new SourceTreeManifest();
+        for (int i = 0; i < fileSizes.length; i++) {
+            manifest.addFile("root", new StorageItem(BoxItemType.FILE, "file-" + i, "file-" + i, fileSizes[i], null, "0", null));
+        }
+        return manifest;
+    }
+
+    private static StorageItem folder(String id) {
+        return new StorageItem(BoxItemType.FOLDER, id, id, 0, null, "0", null);
+    }
+}
@@ -0,0 +1,124 @@
+package com.eoral.copyboxfolder;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Streaming copies against the local backend, with files larger than the pipe buffer so downloads block until uploads read.
+ */
+class StreamingTransferTest {
+
+    private static final int NUMBER_OF_FILES = 45;
+
+    @TempDir
+    Path workDirectory;
+
+    private Path rootDirectory;
+    private String originalUserHome;
+
+    @BeforeEach
+    void createSourceFolder() throws IOException {
+        rootDirectory = Files.createDirectory(workDirectory.resolve("storage"));
+        Path sourceFolder = Files.createDirectory(rootDirectory.resolve("source"));
+        Files.createDirectory(rootDirectory.resolve("target"));
+        Random random = new Random(42);
+        for (int i = 0; i < NUMBER_OF_FILES; i++) {
+            byte[] content = new byte[256 * 1024 + random.nextInt(64 * 1024)];
+            random.nextBytes(content);
+            Files.write(sourceFolder.resolve("file-" + i + ".bin"), content);
+        }
+        // Output, journal and metrics files are written to the user home directory.
+        originalUserHome = System.getProperty("user.home");
+        System.setProperty("user.home", workDirectory.toString());
+    }
+
+    @AfterEach
+    void restoreUserHome() {
+        System.setProperty("user.home", originalUserHome);
+    }
+
+    /**
+     * With a limit of one per connection, an upload holding the only target permit used to wait for its download,
+     * which waited for the only source permit held by another download waiting for its upload.
+     */
+    @Test
+    void completesWhenEachConnectionAllowsOneCall() {
+        Properties properties = createProperties();
+        properties.setProperty("adaptiveConcurrencyEnabled", "true");
+        properties.setProperty("adaptiveConcurrencyInitialLimit", "1");
+        properties.setProperty("adaptiveConcurrencyMinLimit", "1");
+        properties.setProperty("adaptiveConcurrencyMaxLimit", "1");
+        App app = new App();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> app.run(properties,
+                new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none()),
+                new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none())));
+
+        assertEquals(NUMBER_OF_FILES, app.getMetrics().getCompletedFiles());
+        assertEquals(0, app.getMetrics().getFailedFiles());
+        assertSameContent(rootDirectory.resolve("source"), rootDirectory.resolve("target"));
+    }
+
+    @Test
+    void completesWithoutLimits() {
+        Properties properties = createProperties();
+        properties.setProperty("adaptiveConcurrencyEnabled", "false");
+        App app = new App();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> app.run(properties,
+                new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none()),
+                new LocalStorageBackend(rootDirectory, LocalStorageSimulation.none())));
+
+        assertEquals(NUMBER_OF_FILES, app.getMetrics().getCompletedFiles());
+        assertSameContent(rootDirectory.resolve("source"), rootDirectory.resolve("target"));
+    }
+
+    private Properties createProperties() {
+        Properties properties = new Properties();
+        try (InputStream inputStream = App.class.getResourceAsStream("/app.properties")) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        properties.setProperty("storageBackend", "LOCAL");
+        properties.setProperty("sourceFolderId", "source");
+        properties.setProperty("targetFolderId", "target");
+        properties.setProperty("transferMode", "STREAM");
+        properties.setProperty("streamBufferSizeInBytes", "65536");
+        properties.setProperty("numberOfThreadsForCopyingFiles", "5");
+        properties.setProperty("serverSideCopyEnabled", "false");
+        properties.setProperty("resume", "false");
+        properties.setProperty("pipelineStatsIntervalInSeconds", "3600");
+        return properties;
+    }
+
+    private static void assertSameContent(Path sourceFolder, Path targetFolder) {
+        try (Stream<Path> files = Files.list(sourceFolder)) {
+            files.forEach(sourceFile -> {
+                try {
+                    assertArrayEquals(Files.readAllBytes(sourceFile), Files.readAllBytes(targetFolder.resolve(sourceFile.getFileName())));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.eoral.copyboxfolder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SyncStateTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void loadsStateSavedForSameFolders() {
+        Path stateFilePath = directory.resolve("sync-state.jsonl");
+        SyncState state = SyncState.load(stateFilePath, "s", "t");
+        state.record(entry(BoxItemType.FOLDER, "1", "s", "101"));
+        state.record(entry(BoxItemType.FILE, "2", "1", "102"));
+        state.record(entry(BoxItemType.FILE, "3", "1", "103"));
+        state.save(stateFilePath, "s", "t");
+
+        SyncState loaded = SyncState.load(stateFilePath, "s", "t");
+
+        assertEquals(3, loaded.getPreviousSize());
+        SyncStateEntry file = loaded.getPrevious("2");
+        assertEquals(BoxItemType.FILE, file.getType());
+        assertEquals("102", file.getTargetId());
+        assertEquals("sha-2", file.getSha1());
+        assertEquals(2, loaded.getPreviousChildren("1").size());
+        assertEquals(0, loaded.getPreviousChildren("2").size());
+        assertEquals(0, loaded.getCurrentSize());
+    }
+
+    @Test
+    void stateOfOtherFoldersIsIgnored() {
+        Path stateFilePath = directory.resolve("sync-state.jsonl");
+        SyncState state = SyncState.load(stateFilePath, "s", "t");
+        state.record(entry(BoxItemType.FILE, "2", "s", "102"));
+        state.save(stateFilePath, "s", "t");
+
+        assertEquals(0, SyncState.load(stateFilePath, "s", "other").getPreviousSize());
+        assertEquals(0, SyncState.load(stateFilePath, "other", "t").getPreviousSize());
+    }
+
+    @Test
+    void missingOrEmptyStateIsEmpty() throws IOException {
+        assertEquals(0, SyncState.load(directory.resolve("missing.jsonl"), "s", "t").getPreviousSize());
+        Path emptyFilePath = Files.write(directory.resolve("empty.jsonl"), "".getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, SyncState.load(emptyFilePath, "s", "t").getPreviousSize());
+    }
+
+    @Test
+    void carriedForwardEntryDoesNotReplaceRecordedEntry() {
+        Path stateFilePath = directory.resolve("sync-state.jsonl");
+        SyncState state = SyncState.load(stateFilePath, "s", "t");
+        state.record(entry(BoxItemType.FILE, "2", "moved-to", "202"));
+        state.carryForward(entry(BoxItemType.FILE, "2", "moved-from", "102"));
+        state.carryForward(entry(BoxItemType.FILE, "3", "moved-from", "103"));
+        state.save(stateFilePath, "s", "t");
+
+        SyncState loaded = SyncState.load(stateFilePath, "s", "t");
+
+        assertEquals("202", loaded.getPrevious("2").getTargetId());
+        assertEquals("103", loaded.getPrevious("3").getTargetId());
+        assertNull(loaded.getPrevious("4"));
+    }
+
+    private static SyncStateEntry entry(BoxItemType type, String sourceId, String sourceParentId, String targetId) {
+        return new SyncStateEntry(type, sourceId, sourceParentId, "name-" + sourceId, 10, "0", "sha-" + sourceId,
+                "2024-01-01T00:00:00Z", targetId, "parent-of-" + targetId);
+    }
+}
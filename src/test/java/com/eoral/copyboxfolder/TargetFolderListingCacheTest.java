@@ -0,0 +1,109 @@
+package com.eoral.copyboxfolder;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TargetFolderListingCacheTest {
+
+    @TempDir
+    Path rootDirectory;
+
+    private final ExecutorService prefetchExecutor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    @Test
+    void listsFolderOnceForConcurrentLookups() throws Exception {
+        Path folder = Files.createDirectory(rootDirectory.resolve("target"));
+        for (int i = 0; i < 25; i++) {
+            Files.write(folder.resolve("file-" + i), new byte[]{(byte) i});
+        }
+        Files.createDirectory(folder.resolve("sub"));
+        CountingBackend backend = new CountingBackend(rootDirectory);
+        TargetFolderListingCache cache = createCache(backend);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> lookups = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                String name = "file-" + (i % 30);
+                lookups.add(executor.submit(() -> cache.findId("target", BoxItemType.FILE, name)));
+            }
+            for (int i = 0; i < lookups.size(); i++) {
+                String id = lookups.get(i).get(10, TimeUnit.SECONDS);
+                if (i % 30 < 25) {
+                    assertNotNull(id);
+                } else {
+                    assertNull(id);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertNotNull(cache.findId("target", BoxItemType.FOLDER, "sub"));
+        assertNull(cache.findId("target", BoxItemType.FILE, "sub"));
+        // Page size 10, 26 children.
+        assertEquals(3, backend.pagesListed.get());
+    }
+
+    @Test
+    void failedListingIsRetriedOnNextUse() throws IOException {
+        CountingBackend backend = new CountingBackend(rootDirectory);
+        TargetFolderListingCache cache = createCache(backend);
+
+        assertThrows(RuntimeException.class, () -> cache.findId("missing", BoxItemType.FILE, "a"));
+        Files.write(Files.createDirectory(rootDirectory.resolve("missing")).resolve("a"), new byte[]{1});
+
+        assertNotNull(cache.findId("missing", BoxItemType.FILE, "a"));
+    }
+
+    @Test
+    void createdFolderIsNotListed() {
+        CountingBackend backend = new CountingBackend(rootDirectory);
+        TargetFolderListingCache cache = createCache(backend);
+
+        cache.putEmptyFolder("new");
+
+        assertNull(cache.findId("new", BoxItemType.FILE, "a"));
+        assertEquals(0, backend.pagesListed.get());
+    }
+
+    private TargetFolderListingCache createCache(StorageBackend backend) {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.unlimited("target", new TransferMetrics().connection("target"));
+        return new TargetFolderListingCache(new FolderLister(backend, limiter, prefetchExecutor, 10), 100);
+    }
+
+    private static class CountingBackend extends LocalStorageBackend {
+
+        private final AtomicInteger pagesListed = new AtomicInteger();
+
+        CountingBackend(Path rootDirectory) {
+            super(rootDirectory, LocalStorageSimulation.none());
+        }
+
+        @Override
+        public StoragePage listChildren(String folderId, String marker, int limit) {
+            pagesListed.incrementAndGet();
+            return super.listChildren(folderId, marker, limit);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.eoral.copyboxfolder;
+
+import com.box.sdk.BoxAPIException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferMetricsTest {
+
+    @Test
+    void limiterCountsThrottledCallsOfBackendsWhichDontRetry() {
+        TransferMetrics metrics = new TransferMetrics();
+        TransferMetrics.ConnectionMetrics connection = metrics.connection("target");
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.unlimited("target", connection);
+
+        assertThrows(BoxAPIException.class, () -> limiter.execute(BoxOperation.UPLOAD, true, () -> {
+            throw new BoxAPIException("Rate limited", 429, "");
+        }));
+
+        assertEquals(1, connection.getRateLimited());
+        assertTrue(new ProgressReporter(metrics).getApiLine(connection).endsWith("429: 1, 5xx: 0, retries: 0"));
+        assertTrue(metrics.toPrometheusText().contains("api_retries_total{connection=\"target\"} 0"));
+    }
+
+    /**
+     * Throttled responses retried by the SDK are counted by the connection, retries themselves are not known.
+     */
+    @Test
+    void throttledResponsesCountedByClientAreNotCountedTwice() {
+        TransferMetrics metrics = new TransferMetrics();
+        TransferMetrics.ConnectionMetrics connection = metrics.connection("target");
+        connection.countedByClient();
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.unlimited("target", connection);
+        // Like the SDK giving up after a retry, both responses were seen by the connection.
+        connection.throttled(503);
+        connection.throttled(503);
+
+        assertThrows(BoxAPIException.class, () -> limiter.execute(BoxOperation.UPLOAD, true, () -> {
+            throw new BoxAPIException("Service unavailable", 503, "");
+        }));
+
+        assertEquals(2, connection.getServerErrors());
+        assertTrue(new ProgressReporter(metrics).getApiLine(connection).endsWith("429: 0, 5xx: 2, retries: n/a (SDK retries)"));
+        assertFalse(metrics.toPrometheusText().contains("api_retries_total{connection=\"target\"}"));
+    }
+}